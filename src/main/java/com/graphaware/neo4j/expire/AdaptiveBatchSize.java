@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+/**
+ * Number of entities to expire in one go, adapted to how long doing so takes (additive increase, multiplicative
+ * decrease). While runs take less than the target duration and use up the whole batch, the batch grows by a twentieth
+ * of the range between the minimum and the maximum; when a run takes longer, the batch is halved.
+ */
+final class AdaptiveBatchSize {
+
+    private final int min;
+    private final int max;
+    private final long targetMillis;
+    private final int increment;
+
+    private volatile int current;
+
+    AdaptiveBatchSize(int min, int max, long targetMillis) {
+        this.min = min;
+        this.max = max;
+        this.targetMillis = targetMillis;
+        this.increment = Math.max(1, (max - min) / 20);
+        this.current = min;
+    }
+
+    /**
+     * @return number of entities to expire in the next run.
+     */
+    int get() {
+        return current;
+    }
+
+    /**
+     * Adapt the batch size to a finished run.
+     *
+     * @param millis    how long the run took, including its commit.
+     * @param saturated whether the run used up the whole batch.
+     */
+    synchronized void completed(long millis, boolean saturated) {
+        if (millis > targetMillis) {
+            decrease();
+        } else if (saturated) {
+            current = (int) Math.min(max, (long) current + increment);
+        }
+    }
+
+    /**
+     * Adapt the batch size to a run that failed to commit.
+     */
+    synchronized void failed() {
+        decrease();
+    }
+
+    private void decrease() {
+        current = Math.max(min, current / 2);
+    }
+}
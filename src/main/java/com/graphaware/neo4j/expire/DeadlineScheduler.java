@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import com.graphaware.common.log.LoggerFactory;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Expires entities on a dedicated thread, rather than on each call of the timer-driven module. The thread sleeps until
+ * the earliest expiry date known to the indexer, or until an entity expiring earlier than that has been indexed,
+ * whichever comes first, and then expires entities in its own transaction. While there are more expired entities than
+ * can be expired in one go, it keeps going without sleeping.
+ * <p>
+ * A run that makes no progress, e.g. because the entities that are due are locked and keep the watermark where it is,
+ * is followed by a pause that doubles with each such run, up to {@link #MAX_BACKOFF_MILLIS}, rather than by another run
+ * straight away. While the instance role policy of the module does not apply to the current role of the instance (e.g.
+ * after it has stopped being writable), the scheduler does not run at all and checks the role again every
+ * {@link #ROLE_CHECK_INTERVAL_MILLIS} ms, like the timer-driven runtime does before each call of the module.
+ * <p>
+ * The scheduler starts from the context persisted by the timer-driven module, which in turn persists the context the
+ * scheduler has reached from then on.
+ */
+final class DeadlineScheduler {
+
+    private static final Log LOG = LoggerFactory.getLogger(DeadlineScheduler.class);
+
+    /**
+     * Longest time to sleep, in case entities have been indexed without the scheduler being told, e.g. on
+     * initialization of the module.
+     */
+    static final long MAX_SLEEP_MILLIS = 60_000;
+
+    private static final long MIN_INTERVAL_MILLIS = 10;
+    static final long MAX_BACKOFF_MILLIS = 1_000;
+    static final long ROLE_CHECK_INTERVAL_MILLIS = 1_000;
+    private static final long FAILURE_DELAY_MILLIS = 1_000;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+
+    private final GraphDatabaseService database;
+    private final ExpirationModule module;
+    private final BooleanSupplier roleApplies;
+    private final Thread thread;
+
+    private ExpirationContext context;
+    private long backoff = MIN_INTERVAL_MILLIS;
+    private long deadline = Long.MIN_VALUE;
+    private volatile boolean running = true;
+
+    /**
+     * @param database    to expire entities in.
+     * @param module      to expire entities with.
+     * @param context     to start from.
+     * @param roleApplies tells whether the instance role policy of the module applies to the current role of the
+     *                    instance, i.e. whether entities may be expired.
+     */
+    DeadlineScheduler(GraphDatabaseService database, ExpirationModule module, ExpirationContext context, BooleanSupplier roleApplies) {
+        this.database = database;
+        this.module = module;
+        this.context = context;
+        this.roleApplies = roleApplies;
+
+        this.thread = new Thread(this::run, "GraphAware-Expire-Scheduler");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return context reached by the last run that has committed.
+     */
+    synchronized ExpirationContext context() {
+        return context;
+    }
+
+    /**
+     * Let the scheduler know that an entity has been indexed, so that it wakes up earlier if need be.
+     *
+     * @param expiryDate of the entity in ms since epoch.
+     */
+    synchronized void indexed(long expiryDate) {
+        if (expiryDate < deadline) {
+            deadline = expiryDate;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stop the scheduler, waiting for a run in progress to finish.
+     */
+    void shutdown() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+
+        try {
+            thread.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (awaitDeadline()) {
+            long started = System.currentTimeMillis();
+            long next;
+
+            try {
+                next = roleApplies.getAsBoolean() ? expire(started) : started + ROLE_CHECK_INTERVAL_MILLIS;
+            } catch (RuntimeException e) {
+                LOG.warn("Expiring entities failed, trying again in " + FAILURE_DELAY_MILLIS + " ms", e);
+                next = started + FAILURE_DELAY_MILLIS;
+            }
+
+            synchronized (this) {
+                deadline = Math.min(deadline, next);
+            }
+        }
+    }
+
+    /**
+     * Expire entities in a transaction of its own.
+     *
+     * @param started when the run started.
+     * @return when to run next.
+     */
+    private long expire(long started) {
+        ExpirationContext previous = context();
+        long expiredBefore = module.getStatistics().getExpired();
+
+        ExpirationContext reached;
+        try (Transaction tx = database.beginTx()) {
+            reached = module.expire(previous);
+            tx.success();
+        }
+
+        synchronized (this) {
+            context = reached;
+        }
+
+        long next = module.nextExpiry(reached);
+
+        //entities are due, but none could be expired and the watermark has not moved
+        if (next <= started && reached.equals(previous) && module.getStatistics().getExpired() == expiredBefore) {
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        } else {
+            backoff = MIN_INTERVAL_MILLIS;
+        }
+
+        return Math.max(next, started + backoff);
+    }
+
+    /**
+     * Sleep until the deadline, or for at most {@link #MAX_SLEEP_MILLIS}. Entities indexed from then on move the next
+     * deadline.
+     *
+     * @return <code>false</code> iff the scheduler has been shut down.
+     */
+    private synchronized boolean awaitDeadline() {
+        long latest = System.currentTimeMillis() + MAX_SLEEP_MILLIS;
+        long now;
+
+        try {
+            while (running && (now = System.currentTimeMillis()) < Math.min(deadline, latest)) {
+                wait(Math.min(deadline, latest) - now);
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+
+        deadline = Long.MAX_VALUE;
+
+        return running;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import com.graphaware.neo4j.expire.strategy.DeleteNodeAndRelationshipsInChunks;
+import com.graphaware.neo4j.expire.strategy.DeleteOrphanedNodeOnly;
+import com.graphaware.neo4j.expire.strategy.ExpirationStrategy;
+import org.neo4j.graphdb.Entity;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.impl.api.KernelTransactionImplementation;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.impl.locking.Locks;
+import org.neo4j.kernel.impl.locking.ResourceTypes;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.storageengine.api.lock.ResourceType;
+
+import java.util.Arrays;
+
+/**
+ * Takes the locks needed for deleting an entity in the transaction bound to the current thread, without waiting for
+ * other transactions to release them. For a node, these are the locks of the node and of the relationships the node
+ * expiration strategy deletes at a time, with the nodes at their other ends; for a relationship, the locks of the
+ * relationship and its nodes.
+ * <p>
+ * Only as many relationships are locked as the strategy can delete, e.g. a chunk of them, so that expiring a dense node
+ * does not lock all its relationships and neighbours for the whole expiry transaction. They are the first ones in the
+ * order the node returns them in, which is the order the strategy deletes them in.
+ * <p>
+ * The public API only offers locks that wait, so the lock client of the kernel transaction is used directly.
+ */
+final class EntityLocks {
+
+    private final ThreadToStatementContextBridge bridge;
+    private final int relationships;
+
+    /**
+     * @param database     to lock entities in.
+     * @param nodeStrategy expiration strategy of nodes, to find out how many of a node's relationships to lock.
+     */
+    EntityLocks(GraphDatabaseService database, ExpirationStrategy<Node> nodeStrategy) {
+        this.bridge = ((GraphDatabaseAPI) database).getDependencyResolver().resolveDependency(ThreadToStatementContextBridge.class);
+        this.relationships = relationshipsDeletedAtATime(nodeStrategy);
+    }
+
+    /**
+     * @param strategy expiration strategy of nodes.
+     * @return maximum number of relationships of a node the strategy deletes at a time, {@link Integer#MAX_VALUE} if
+     * it may delete all of them.
+     */
+    static int relationshipsDeletedAtATime(ExpirationStrategy<Node> strategy) {
+        if (strategy instanceof DeleteOrphanedNodeOnly) {
+            return 0;
+        }
+
+        if (strategy instanceof DeleteNodeAndRelationshipsInChunks) {
+            return ((DeleteNodeAndRelationshipsInChunks) strategy).getChunkSize();
+        }
+
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Try to take the locks needed for deleting an entity. If any of them is held by another transaction, the ones
+     * taken so far are released again.
+     *
+     * @param entity to lock.
+     * @return <code>true</code> iff all the locks have been taken.
+     */
+    boolean tryLock(Entity entity) {
+        Attempt attempt = new Attempt(((KernelTransactionImplementation) bridge.getKernelTransactionBoundToThisThread(true)).statementLocks().pessimistic());
+
+        if (entity instanceof Node) {
+            return tryLock(attempt, (Node) entity, relationships) || attempt.abandon();
+        }
+
+        return tryLock(attempt, (Relationship) entity) || attempt.abandon();
+    }
+
+    private static boolean tryLock(Attempt attempt, Node node, int relationships) {
+        if (!attempt.lock(ResourceTypes.NODE, node.getId())) {
+            return false;
+        }
+
+        int locked = 0;
+
+        for (Relationship relationship : node.getRelationships()) {
+            if (locked++ == relationships) {
+                break;
+            }
+
+            if (!attempt.lock(ResourceTypes.RELATIONSHIP, relationship.getId())
+                    || !attempt.lock(ResourceTypes.NODE, relationship.getOtherNodeId(node.getId()))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean tryLock(Attempt attempt, Relationship relationship) {
+        return attempt.lock(ResourceTypes.RELATIONSHIP, relationship.getId())
+                && attempt.lock(ResourceTypes.NODE, relationship.getStartNodeId())
+                && attempt.lock(ResourceTypes.NODE, relationship.getEndNodeId());
+    }
+
+    /**
+     * Locks taken for a single entity, so that they can be released if not all of them can be taken.
+     */
+    private static final class Attempt {
+
+        private final Locks.Client client;
+
+        private long[] nodes = new long[8];
+        private int nodeCount;
+        private long[] relationships = new long[8];
+        private int relationshipCount;
+
+        Attempt(Locks.Client client) {
+            this.client = client;
+        }
+
+        boolean lock(ResourceTypes type, long id) {
+            if (!client.tryExclusiveLock(type, id)) {
+                return false;
+            }
+
+            if (type == ResourceTypes.NODE) {
+                nodes = append(nodes, nodeCount++, id);
+            } else {
+                relationships = append(relationships, relationshipCount++, id);
+            }
+
+            return true;
+        }
+
+        boolean abandon() {
+            release(ResourceTypes.NODE, nodes, nodeCount);
+            release(ResourceTypes.RELATIONSHIP, relationships, relationshipCount);
+            return false;
+        }
+
+        private void release(ResourceType type, long[] ids, int count) {
+            if (count > 0) {
+                client.releaseExclusive(type, Arrays.copyOf(ids, count));
+            }
+        }
+
+        private static long[] append(long[] array, int index, long id) {
+            if (array.length == index) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+
+            array[index] = id;
+
+            return array;
+        }
+    }
+}
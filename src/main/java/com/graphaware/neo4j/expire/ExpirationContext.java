@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import com.graphaware.runtime.metadata.TimerDrivenModuleContext;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+/**
+ * {@link TimerDrivenModuleContext} of the {@link ExpirationModule}, remembering how far it has got with expiring nodes
+ * and relationships, so that it can resume there on the next run, including after a restart.
+ * <p>
+ * For nodes and relationships separately, it holds a low watermark. All entities with an expiry date before the
+ * watermark are known to have been expired (or rescheduled, if they have been left in place by the expiration
+ * strategy). When a run finds no more expired entities, the watermark moves to the point in time up to which that run
+ * has looked.
+ * <p>
+ * It also holds the earliest time at which the module wants to be called next, which is {@link #ASAP} unless entities
+ * are expired by a {@link DeadlineScheduler}.
+ */
+public final class ExpirationContext implements TimerDrivenModuleContext<Void> {
+
+    private final long nodeWatermark;
+    private final long relationshipWatermark;
+    private final long earliestNextCall;
+
+    /**
+     * Create the context in which nothing has been expired yet.
+     *
+     * @return initial context.
+     */
+    public static ExpirationContext initial() {
+        return new ExpirationContext(0, 0);
+    }
+
+    public ExpirationContext(long nodeWatermark, long relationshipWatermark) {
+        this(nodeWatermark, relationshipWatermark, ASAP);
+    }
+
+    public ExpirationContext(long nodeWatermark, long relationshipWatermark, long earliestNextCall) {
+        this.nodeWatermark = nodeWatermark;
+        this.relationshipWatermark = relationshipWatermark;
+        this.earliestNextCall = earliestNextCall;
+    }
+
+    /**
+     * Create a copy of this context with a different time of the next call.
+     *
+     * @param earliestNextCall earliest time in ms since epoch at which the module should be called next.
+     * @return new context.
+     */
+    public ExpirationContext withEarliestNextCall(long earliestNextCall) {
+        return new ExpirationContext(nodeWatermark, relationshipWatermark, earliestNextCall);
+    }
+
+    /**
+     * @return expiry date in ms since epoch before which all nodes have been expired.
+     */
+    public long getNodeWatermark() {
+        return nodeWatermark;
+    }
+
+    /**
+     * @return expiry date in ms since epoch before which all relationships have been expired.
+     */
+    public long getRelationshipWatermark() {
+        return relationshipWatermark;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long earliestNextCall() {
+        return earliestNextCall;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Void find(GraphDatabaseService database) {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        ExpirationContext that = (ExpirationContext) o;
+
+        return nodeWatermark == that.nodeWatermark
+                && relationshipWatermark == that.relationshipWatermark
+                && earliestNextCall == that.earliestNextCall;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int result = (int) (nodeWatermark ^ (nodeWatermark >>> 32));
+        result = 31 * result + (int) (relationshipWatermark ^ (relationshipWatermark >>> 32));
+        result = 31 * result + (int) (earliestNextCall ^ (earliestNextCall >>> 32));
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ExpirationContext{" +
+                "nodeWatermark=" + nodeWatermark +
+                ", relationshipWatermark=" + relationshipWatermark +
+                ", earliestNextCall=" + earliestNextCall +
+                '}';
+    }
+}
@@ -17,29 +17,46 @@
 package com.graphaware.neo4j.expire;
 
 import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.common.policy.role.InstanceRoleUtils;
 import com.graphaware.common.util.Change;
+import com.graphaware.neo4j.expire.budget.Backlog;
 import com.graphaware.neo4j.expire.config.ExpirationConfiguration;
 import com.graphaware.neo4j.expire.indexer.ExpirationIndexer;
-import com.graphaware.neo4j.expire.indexer.LegacyExpirationIndexer;
+import com.graphaware.neo4j.expire.indexer.ExpiryDates;
+import com.graphaware.neo4j.expire.strategy.ExpirationStrategy;
 import com.graphaware.runtime.config.BaseTxAndTimerDrivenModuleConfiguration;
-import com.graphaware.runtime.metadata.EmptyContext;
 import com.graphaware.runtime.metadata.TimerDrivenModuleContext;
 import com.graphaware.runtime.module.BaseTxDrivenModule;
 import com.graphaware.runtime.module.DeliberateTransactionRollbackException;
 import com.graphaware.runtime.module.TimerDrivenModule;
 import com.graphaware.runtime.module.TxDrivenModule;
 import com.graphaware.tx.event.improved.api.ImprovedTransactionData;
-import com.graphaware.tx.executor.batch.IterableInputBatchTransactionExecutor;
-import com.graphaware.tx.executor.batch.UnitOfWork;
-import com.graphaware.tx.executor.input.AllNodes;
-import com.graphaware.tx.executor.input.AllRelationships;
+import org.neo4j.graphdb.Entity;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.PropertyContainer;
 import org.neo4j.graphdb.Relationship;
-import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.logging.Log;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.LongUnaryOperator;
+import java.util.function.ObjLongConsumer;
+import java.util.function.ToIntFunction;
 
 /**
  * A {@link TxDrivenModule} and a {@link TimerDrivenModule} that allows for setting an expiry date or ttl on nodes
@@ -49,30 +66,197 @@ public class ExpirationModule extends BaseTxDrivenModule<Void> implements TimerD
 
     private static final Log LOG = LoggerFactory.getLogger(ExpirationModule.class);
 
+    private static final String CHECKPOINT_SUFFIX = ".initialization";
+    static final int RELATIONSHIPS_PHASE = 0;
+    static final int NODES_PHASE = 1;
+    private static final long INITIALIZER_SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+    private static final long LOCKED_INITIAL_DELAY = 100;
+    private static final long LOCKED_MAX_DELAY = 10_000;
+
+    private final GraphDatabaseService database;
     private final ExpirationIndexer indexer;
     private final ExpirationConfiguration config;
 
+    private final Retries nodeRetries = new Retries();
+    private final Retries relationshipRetries = new Retries();
+    private final Retries nodeLockRetries = new Retries(LOCKED_INITIAL_DELAY, LOCKED_MAX_DELAY);
+    private final Retries relationshipLockRetries = new Retries(LOCKED_INITIAL_DELAY, LOCKED_MAX_DELAY);
+
+    private final AdaptiveBatchSize batchSize;
+    private volatile ParallelExpirer parallelExpirer;
+    private volatile DeadlineScheduler scheduler;
+    private volatile EntityLocks locks;
+    private volatile IndexReconciler reconciler;
+    private boolean started;
+    private Thread initializer;
+    private final ExpirationStatistics statistics = new ExpirationStatistics();
+    private final ThreadLocal<Tick> currentTick = new ThreadLocal<>();
+    private final ThreadLocal<Boolean> expiring = new ThreadLocal<>();
+    private final ExpiryPropertyCheck propertyCheck;
+
     public ExpirationModule(String moduleId, GraphDatabaseService database, ExpirationConfiguration config) {
         super(moduleId);
 
         config.validate();
 
-        this.indexer = new LegacyExpirationIndexer(database, config);
+        this.database = database;
+        this.indexer = config.getIndexerType().createIndexer(database, config);
         this.config = config;
+        this.batchSize = config.getTargetTickMillis() > 0 ? new AdaptiveBatchSize(config.getMinNoExpirations(), config.getMaxNoExpirations(), config.getTargetTickMillis()) : null;
+        this.propertyCheck = new ExpiryPropertyCheck(
+                properties(config.getNodeExpirationIndex(), config.getNodeExpirationProperty(), config.getNodeTtlProperty()),
+                properties(config.getRelationshipExpirationIndex(), config.getRelationshipExpirationProperty(), config.getRelationshipTtlProperty()));
     }
 
+    private static Set<String> properties(String index, String... properties) {
+        Set<String> result = new HashSet<>();
+        if (index != null) {
+            for (String property : properties) {
+                if (property != null) {
+                    result.add(property);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start(GraphDatabaseService database) {
+        super.start(database);
+        indexer.start();
+        database.registerTransactionEventHandler(propertyCheck);
+
+        if (config.getExpiryThreads() > 0) {
+            parallelExpirer = new ParallelExpirer(database, indexer, config.getExpiryThreads());
+        }
+
+        if (config.isSkipLockedEntities()) {
+            locks = new EntityLocks(database, config.getNodeExpirationStrategy());
+        }
+
+        if (config.isBackgroundInitialization()) {
+            synchronized (this) {
+                started = true;
+                startInitializer(database);
+            }
+        } else if (!indexer.isBuiltOnStart()) {
+            resumeInitialization(database);
+        }
+
+        if (config.getReconciliationRate() > 0) {
+            reconciler = new IndexReconciler(database, indexer, this::indexed, config,
+                    id -> nodeRetries.isWaiting(id) || nodeLockRetries.isWaiting(id),
+                    id -> relationshipRetries.isWaiting(id) || relationshipLockRetries.isWaiting(id),
+                    statistics);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        stopInitializer();
+
+        if (reconciler != null) {
+            reconciler.shutdown();
+        }
+
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+
+        if (parallelExpirer != null) {
+            parallelExpirer.shutdown();
+        }
+
+        database.unregisterTransactionEventHandler(propertyCheck);
+        indexer.shutdown();
+        super.shutdown();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Entity types with no expiration index configured are not looked at at all. Created, changed and deleted entities
+     * are only looked at if the transaction has touched an expiration or TTL property, which is found out once per
+     * transaction by {@link ExpiryPropertyCheck}. Even then, changed entities are only looked at further if their own
+     * expiration or TTL property has been touched, and deleted entities are only removed from the index if they had one
+     * of these properties, so that transactions that do not involve expiry cause no index writes.
+     * <p>
+     * Nodes left in place by the expiration strategy are looked at again as soon as one of their relationships has
+     * been deleted, provided they are still due to expire. Touching their expiration or TTL property means they are no
+     * longer treated as left in place.
+     */
     @Override
     public Void beforeCommit(ImprovedTransactionData td) throws DeliberateTransactionRollbackException {
-        handleCreatedNodes(td.getAllCreatedNodes());
-        handleCreatedRelationships(td.getAllCreatedRelationships());
-        handleUpdatedNodes(td);
-        handleUpdatedRelationships(td);
-        handleDeletedNodes(td);
-        handleDeletedRelationships(td);
+        indexer.beforeCommit();
+        propertyCheck.whenChecked(touched -> handle(td, touched));
 
         return null;
     }
 
+    private void handle(ImprovedTransactionData td, boolean expiryTouched) {
+        if (config.getNodeExpirationIndex() != null) {
+            if (expiryTouched) {
+                handleCreatedNodes(td.getAllCreatedNodes());
+                handleUpdatedNodes(td);
+                handleDeletedNodes(td);
+            }
+            handleRelationshipsOfWaitingNodesDeleted(td);
+        }
+
+        if (config.getRelationshipExpirationIndex() != null && expiryTouched) {
+            handleCreatedRelationships(td.getAllCreatedRelationships());
+            handleUpdatedRelationships(td);
+            handleDeletedRelationships(td);
+        }
+
+        indexer.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterCommit(Void state) {
+        expiring.remove();
+        indexer.afterCommit();
+        indexed();
+
+        Tick tick = currentTick.get();
+        if (tick != null) {
+            currentTick.remove();
+            batchSize.completed(tick.millisSinceStarted(), tick.saturated);
+        }
+    }
+
+    /**
+     * Let the deadline scheduler, if there is one, know about what has just been indexed.
+     */
+    private void indexed() {
+        if (scheduler != null) {
+            scheduler.indexed(Math.min(indexer.peekEarliestIndexedNodeExpiry(), indexer.peekEarliestIndexedRelationshipExpiry()));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterRollback(Void state) {
+        expiring.remove();
+        indexer.afterRollback();
+
+        if (currentTick.get() != null) {
+            currentTick.remove();
+            batchSize.failed();
+        }
+    }
+
     private void handleCreatedNodes(Collection<Node> nodes) {
         for (Node node : nodes) {
             indexer.indexNode(node);
@@ -86,18 +270,20 @@ public class ExpirationModule extends BaseTxDrivenModule<Void> implements TimerD
     }
 
     private void handleUpdatedNodes(ImprovedTransactionData td) {
+        String expProp = config.getNodeExpirationProperty();
+        String ttlProp = config.getNodeTtlProperty();
+
         for (Change<Node> change : td.getAllChangedNodes()) {
             Node current = change.getCurrent();
-            String expProp = config.getNodeExpirationProperty();
-            String ttlProp = config.getNodeTtlProperty();
+            boolean ttlTouched = hasPropertyBeenTouched(td, current, ttlProp);
+            boolean expiryTouched = hasPropertyBeenTouched(td, current, expProp);
 
-            if (td.hasPropertyBeenCreated(current, expProp)
-                    || td.hasPropertyBeenCreated(current, ttlProp)
-                    || td.hasPropertyBeenChanged(current, expProp)
-                    || td.hasPropertyBeenChanged(current, ttlProp)
-                    || td.hasPropertyBeenDeleted(current, expProp)
-                    || td.hasPropertyBeenDeleted(current, ttlProp)) {
+            if (ttlTouched || expiryTouched) {
+                nodeRetries.forget(current.getId());
+                nodeLockRetries.forget(current.getId());
+            }
 
+            if (ttlTouched || (expiryTouched && expiryDateChanged(change.getPrevious(), current, expProp))) {
                 indexer.removeNode(change.getPrevious());
                 indexer.indexNode(current);
             }
@@ -105,61 +291,255 @@ public class ExpirationModule extends BaseTxDrivenModule<Void> implements TimerD
     }
 
     private void handleUpdatedRelationships(ImprovedTransactionData td) {
+        String expProp = config.getRelationshipExpirationProperty();
+        String ttlProp = config.getRelationshipTtlProperty();
+
         for (Change<Relationship> change : td.getAllChangedRelationships()) {
             Relationship current = change.getCurrent();
-            String expProp = config.getRelationshipExpirationProperty();
-            String ttlProp = config.getRelationshipTtlProperty();
+            boolean ttlTouched = hasPropertyBeenTouched(td, current, ttlProp);
+            boolean expiryTouched = hasPropertyBeenTouched(td, current, expProp);
 
-            if (td.hasPropertyBeenCreated(current, expProp)
-                    || td.hasPropertyBeenCreated(current, ttlProp)
-                    || td.hasPropertyBeenChanged(current, expProp)
-                    || td.hasPropertyBeenChanged(current, ttlProp)
-                    || td.hasPropertyBeenDeleted(current, expProp)
-                    || td.hasPropertyBeenDeleted(current, ttlProp)) {
+            if (ttlTouched || expiryTouched) {
+                relationshipRetries.forget(current.getId());
+                relationshipLockRetries.forget(current.getId());
+            }
 
+            if (ttlTouched || (expiryTouched && expiryDateChanged(change.getPrevious(), current, expProp))) {
                 indexer.removeRelationship(change.getPrevious());
                 indexer.indexRelationship(current);
             }
         }
     }
 
+    private boolean hasPropertyBeenTouched(ImprovedTransactionData td, Node current, String property) {
+        return property != null
+                && (td.hasPropertyBeenCreated(current, property)
+                || td.hasPropertyBeenChanged(current, property)
+                || td.hasPropertyBeenDeleted(current, property));
+    }
+
+    private boolean hasPropertyBeenTouched(ImprovedTransactionData td, Relationship current, String property) {
+        return property != null
+                && (td.hasPropertyBeenCreated(current, property)
+                || td.hasPropertyBeenChanged(current, property)
+                || td.hasPropertyBeenDeleted(current, property));
+    }
+
+    /**
+     * Find out whether the effective value of an expiration property has changed. Values that represent the same
+     * expiry date (e.g. the same number of a different type, or the same instant in a different time zone) are
+     * considered equal. A TTL, on the other hand, is relative to the time it is set, so a touched TTL property always
+     * means a new expiry date.
+     */
+    private boolean expiryDateChanged(PropertyContainer previous, PropertyContainer current, String expProp) {
+        return ExpiryDates.expiryDate(previous.getProperty(expProp, null)) != ExpiryDates.expiryDate(current.getProperty(expProp, null));
+    }
+
     private void handleDeletedNodes(ImprovedTransactionData td) {
         for (Node node : td.getAllDeletedNodes()) {
-            indexer.removeNode(node);
+            if (hasAnyProperty(node, config.getNodeExpirationProperty(), config.getNodeTtlProperty())) {
+                indexer.removeNode(node);
+                nodeRetries.forget(node.getId());
+                nodeLockRetries.forget(node.getId());
+            }
         }
     }
 
     private void handleDeletedRelationships(ImprovedTransactionData td) {
         for (Relationship relationship : td.getAllDeletedRelationships()) {
-            indexer.removeRelationship(relationship);
+            if (hasAnyProperty(relationship, config.getRelationshipExpirationProperty(), config.getRelationshipTtlProperty())) {
+                indexer.removeRelationship(relationship);
+                relationshipRetries.forget(relationship.getId());
+                relationshipLockRetries.forget(relationship.getId());
+            }
+        }
+    }
+
+    private void handleRelationshipsOfWaitingNodesDeleted(ImprovedTransactionData td) {
+        if (nodeRetries.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        for (Relationship relationship : td.getAllDeletedRelationships()) {
+            for (Node node : relationship.getNodes()) {
+                if (nodeRetries.isWaiting(node.getId()) && !td.hasBeenDeleted(node)) {
+                    Node waiting = database.getNodeById(node.getId());
+
+                    if (isDue(waiting, now)) {
+                        indexer.rescheduleNode(waiting, now);
+                    } else {
+                        nodeRetries.forget(node.getId());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find out whether a node left in place by the expiration strategy is still due to expire, i.e. it still has an
+     * expiry date and that date has passed. The time a TTL has been set at is not stored, so a node with a TTL is
+     * considered due for as long as it has it.
+     */
+    private boolean isDue(Node node, long now) {
+        String ttlProp = config.getNodeTtlProperty();
+        if (ttlProp != null && node.hasProperty(ttlProp)) {
+            return true;
+        }
+
+        String expProp = config.getNodeExpirationProperty();
+        long expiryDate = expProp != null ? ExpiryDates.expiryDate(node.getProperty(expProp, null)) : ExpiryDates.NONE;
+
+        return expiryDate != ExpiryDates.NONE && expiryDate <= now;
+    }
+
+    /**
+     * Find out whether an entity (as it was before the transaction, in case of a deleted one) has at least one of the
+     * given properties. Entities with none of them have never been indexed.
+     */
+    private boolean hasAnyProperty(PropertyContainer entity, String... properties) {
+        for (String property : properties) {
+            if (property != null && entity.hasProperty(property)) {
+                return true;
+            }
         }
+        return false;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Relationships and then nodes are looked at by a {@link ParallelInitializer}, in ascending order of their IDs,
+     * optionally capped at a number of IDs per second. Progress is checkpointed to a file in the database directory,
+     * so that initialization interrupted by a restart resumes where it left off, the next time the module is either
+     * initialized or started. The file is deleted once initialization has completed.
+     * <p>
+     * If the configuration names the only labels of nodes that can be included, only nodes with these labels are looked
+     * at, found using the label scan store. If it names the only types of relationships that can be included,
+     * relationships of other types are skipped without reading their properties.
+     * <p>
+     * With background initialization, this only records that initialization is to be done, which is then done by a
+     * background thread once the module has started (or, after a restart, until it is complete), while entities
+     * already indexed are being expired.
+     * <p>
+     * Indexers that build their index every time they start are not initialized at all.
+     */
     @Override
     public void initialize(GraphDatabaseService database) {
-        int batchSize = 1000;
+        if (indexer.isBuiltOnStart()) {
+            LOG.info("Expiry schedule is built when the module starts, nothing to initialize.");
+            return;
+        }
+
+        InitializationCheckpoint checkpoint = checkpoint(database);
+        checkpoint.begin();
+
+        if (config.isBackgroundInitialization()) {
+            startInitializer(database);
+            return;
+        }
+
+        initialize(database, checkpoint);
+    }
+
+    private void initialize(GraphDatabaseService database, InitializationCheckpoint checkpoint) {
+        ParallelInitializer initializer = new ParallelInitializer(database, indexer, this::indexed, config.getInitializationThreads(), config.getInitializationBatchSize(), config.getInitializationRate());
 
         if (config.getRelationshipExpirationIndex() != null) {
             LOG.info("Looking at all relationships to see if they have an expiry date or TTL...");
-
-            new IterableInputBatchTransactionExecutor<>(database, batchSize, new AllRelationships(database, batchSize), new UnitOfWork<Relationship>() {
-                @Override
-                public void execute(GraphDatabaseService database, Relationship r, int batchNumber, int stepNumber) {
+            Set<String> types = config.getInitializationRelationshipTypes();
+            Consumer<Relationship> consumer = types.isEmpty() ? indexer::indexRelationship : r -> {
+                if (types.contains(r.getType().name())) {
                     indexer.indexRelationship(r);
                 }
-            }).execute();
+            };
+            initializer.forAllRelationships(checkpoint.resumeFrom(RELATIONSHIPS_PHASE), consumer, nextId -> checkpoint.save(RELATIONSHIPS_PHASE, nextId));
+            checkpoint.save(NODES_PHASE, 0);
         }
 
         if (config.getNodeExpirationIndex() != null) {
             LOG.info("Looking at all nodes to see if they have an expiry date or TTL...");
+            Set<String> labels = config.getInitializationLabels();
+            if (labels.isEmpty()) {
+                initializer.forAllNodes(checkpoint.resumeFrom(NODES_PHASE), indexer::indexNode, nextId -> checkpoint.save(NODES_PHASE, nextId));
+            } else {
+                initializer.forNodesWithLabels(labels, checkpoint.resumeFrom(NODES_PHASE), indexer::indexNode, nextId -> checkpoint.save(NODES_PHASE, nextId));
+            }
+        }
+
+        checkpoint.clear();
+    }
+
+    /**
+     * Finish initialization that has been interrupted by a restart, in case the runtime does not call
+     * {@link #initialize(GraphDatabaseService)} again. A checkpoint made with a different configuration is deleted.
+     */
+    private void resumeInitialization(GraphDatabaseService database) {
+        InitializationCheckpoint checkpoint = checkpoint(database);
+
+        if (checkpoint.exists()) {
+            LOG.info("Resuming initialization interrupted by a restart...");
+            initialize(database, checkpoint);
+        }
+    }
+
+    /**
+     * Start initializing the module in the background, if it has started, there is initialization to be done, and it is
+     * not being done already.
+     */
+    private synchronized void startInitializer(GraphDatabaseService database) {
+        InitializationCheckpoint checkpoint = checkpoint(database);
+
+        if (!started || (initializer != null && initializer.isAlive()) || !checkpoint.exists()) {
+            return;
+        }
 
-            new IterableInputBatchTransactionExecutor<>(database, batchSize, new AllNodes(database, batchSize), new UnitOfWork<Node>() {
-                @Override
-                public void execute(GraphDatabaseService database, Node n, int batchNumber, int stepNumber) {
-                    indexer.indexNode(n);
+        initializer = new Thread(() -> {
+            try {
+                initialize(database, checkpoint);
+                LOG.info("Background initialization finished");
+            } catch (RuntimeException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    LOG.info("Background initialization interrupted, it will resume when the module starts again");
+                } else {
+                    LOG.error("Background initialization failed, it will resume when the module starts again", e);
                 }
-            }).execute();
+            }
+        }, "GraphAware-Expire-Background-Initializer");
+        initializer.setDaemon(true);
+        initializer.start();
+    }
+
+    private synchronized void stopInitializer() {
+        if (initializer == null) {
+            return;
         }
+
+        initializer.interrupt();
+
+        try {
+            initializer.join(INITIALIZER_SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        initializer = null;
+    }
+
+    InitializationCheckpoint checkpoint(GraphDatabaseService database) {
+        return new InitializationCheckpoint(((GraphDatabaseAPI) database).databaseLayout().databaseDirectory().toPath().resolve(getId() + CHECKPOINT_SUFFIX), checkpointFingerprint());
+    }
+
+    /**
+     * @return fingerprint of the configuration that determines what initialization indexes. A checkpoint made with a
+     * different one is ignored.
+     */
+    private long checkpointFingerprint() {
+        return Objects.hash(config.getIndexerType().name(),
+                config.getNodeExpirationIndex(), config.getNodeExpirationProperty(), config.getNodeTtlProperty(),
+                config.getRelationshipExpirationIndex(), config.getRelationshipExpirationProperty(), config.getRelationshipTtlProperty(),
+                config.getInitializationLabels(), config.getInitializationRelationshipTypes());
     }
 
     /**
@@ -175,41 +555,444 @@ public class ExpirationModule extends BaseTxDrivenModule<Void> implements TimerD
      */
     @Override
     public TimerDrivenModuleContext createInitialContext(GraphDatabaseService graphDatabaseService) {
-        return new EmptyContext();
+        return ExpirationContext.initial();
+    }
+
+    /**
+     * @return counters of the work done by this module since it started.
+     */
+    public ExpirationStatistics getStatistics() {
+        return statistics;
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * With deadline scheduling, entities are expired by a {@link DeadlineScheduler}, which this method starts on its
+     * first call. From then on, it only returns the context the scheduler has reached, so that it gets persisted.
      */
     @Override
     public TimerDrivenModuleContext doSomeWork(TimerDrivenModuleContext timerDrivenModuleContext, GraphDatabaseService graphDatabaseService) {
+        ExpirationContext context = timerDrivenModuleContext instanceof ExpirationContext ? (ExpirationContext) timerDrivenModuleContext : ExpirationContext.initial();
+
+        if (config.isDeadlineScheduling()) {
+            return handOver(context).withEarliestNextCall(System.currentTimeMillis() + DeadlineScheduler.MAX_SLEEP_MILLIS);
+        }
+
+        return expire(context);
+    }
+
+    private synchronized ExpirationContext handOver(ExpirationContext context) {
+        if (scheduler == null) {
+            InstanceRoleUtils instanceRoleUtils = new InstanceRoleUtils(database);
+            scheduler = new DeadlineScheduler(database, this, context, () -> config.getInstanceRolePolicy().comply(instanceRoleUtils.getInstanceRole()));
+        }
+
+        return scheduler.context();
+    }
+
+    /**
+     * Expire entities in the current transaction, or using the {@link ParallelExpirer}.
+     * <p>
+     * Index changes made by the run (e.g. rescheduling entities left in place) are part of the current transaction, so
+     * they are dropped if it rolls back. A transaction that makes no changes to the graph is not reported to the
+     * module, so its index changes are only applied when the next run starts on the same thread; such a transaction
+     * is assumed to have committed unless this method has thrown an exception.
+     *
+     * @param context reached by the previous run.
+     * @return context reached by this run.
+     */
+    ExpirationContext expire(ExpirationContext context) {
+        if (expiring.get() != null) {
+            expiring.remove();
+            indexer.afterCommit();
+            indexed();
+        }
+
+        indexer.beforeCommit();
+        expiring.set(Boolean.TRUE);
+
+        try {
+            ExpirationContext reached = expireEntities(context);
+            indexer.flush();
+            return reached;
+        } catch (RuntimeException e) {
+            expiring.remove();
+            indexer.afterRollback();
+            throw e;
+        }
+    }
+
+    private ExpirationContext expireEntities(ExpirationContext context) {
+        long started = System.nanoTime();
         long now = System.currentTimeMillis();
-        int expired = 0;
-
-        IndexHits<Relationship> relationshipsToExpire = indexer.relationshipsExpiringBefore(now);
-        if (relationshipsToExpire != null) {
-            for (Relationship relationship : relationshipsToExpire) {
-                if (expired < config.getMaxNoExpirations()) {
-                    config.getRelationshipExpirationStrategy().expire(relationship);
-                    expired++;
-                } else {
-                    break;
-                }
+        int budget = config.getMaxNoExpirations();
+
+        if (batchSize != null) {
+            Tick previous = currentTick.get();
+            if (previous != null) {
+                //the previous run's transaction has not been reported to this module, use what is known about it
+                currentTick.remove();
+                batchSize.completed(previous.workMillis, previous.saturated);
             }
+
+            budget = batchSize.get();
+        }
+
+        statistics.run();
+
+        Pass<Relationship> relationships = new Pass<>(context.getRelationshipWatermark(), relationshipRetries, lockRetries(relationshipLockRetries), indexer::rescheduleRelationship, database::getRelationshipById, indexer::earliestRelationshipExpiry, config.isLockOrdering() ? LockOrder.RELATIONSHIPS : null, null, Integer.MAX_VALUE, statistics);
+        relationships.fetch(indexer.relationshipsExpiringBetween(relationships.watermark, now, budget + 1), budget);
+
+        Pass<Node> nodes = new Pass<>(context.getNodeWatermark(), nodeRetries, lockRetries(nodeLockRetries), indexer::rescheduleNode, database::getNodeById, indexer::earliestNodeExpiry, config.isLockOrdering() ? LockOrder.NODES : null, Node::getDegree, EntityLocks.relationshipsDeletedAtATime(config.getNodeExpirationStrategy()), statistics);
+        nodes.fetch(indexer.nodesExpiringBetween(nodes.watermark, now, budget + 1), budget);
+
+        int relationshipBudget = config.getBudgetPolicy().relationshipBudget(budget, relationships.backlog(now), nodes.backlog(now));
+
+        //relationships get a share of the time limit in proportion to their share of the budget, nodes get the rest
+        long nodeNanos = config.getMaxTickMillis() > 0 ? TimeUnit.MILLISECONDS.toNanos(config.getMaxTickMillis()) : Long.MAX_VALUE;
+        long relationshipNanos = nodeNanos == Long.MAX_VALUE || budget == 0 ? nodeNanos : nodeNanos * relationshipBudget / budget;
+
+        int expired = relationships.run(cascading(config.getRelationshipExpirationStrategy()), relationshipBudget, now, started, relationshipNanos, parallelExpirer, locks)
+                + nodes.run(config.getNodeExpirationStrategy(), budget - relationshipBudget, now, started, nodeNanos, parallelExpirer, locks);
+
+        if (batchSize != null && expired > 0) {
+            currentTick.set(new Tick(started, expired >= budget));
+        }
+
+        relationships.lowerTo(indexer.pollEarliestIndexedRelationshipExpiry());
+        nodes.lowerTo(indexer.pollEarliestIndexedNodeExpiry());
+
+        return new ExpirationContext(nodes.watermark, relationships.watermark);
+    }
+
+    /**
+     * @return retries for entities skipped because they are locked, <code>null</code> if they cannot be rescheduled
+     * without waiting for the locks, because the indexer stores its entries on the entities.
+     */
+    private Retries lockRetries(Retries retries) {
+        return indexer.isStoredOnEntities() ? null : retries;
+    }
+
+    /**
+     * Wrap a relationship expiration strategy, so that nodes left in place by the node expiration strategy that are
+     * orphaned by the expiry of a relationship are expired straight away, in the same transaction, rather than on a
+     * later run after another index query. Only nodes that are still due to expire are, see {@link #isDue(Node, long)}.
+     *
+     * @param strategy to wrap.
+     * @return wrapped strategy.
+     */
+    private ExpirationStrategy<Relationship> cascading(ExpirationStrategy<Relationship> strategy) {
+        if (config.getNodeExpirationIndex() == null) {
+            return strategy;
         }
 
-        IndexHits<Node> nodesToExpire = indexer.nodesExpiringBefore(now);
-        if (nodesToExpire != null) {
-            for (Node node : nodesToExpire) {
-                if (expired < config.getMaxNoExpirations()) {
+        return relationship -> {
+            Node[] nodes = relationship.getNodes();
+
+            strategy.expire(relationship);
+
+            if (exists(database::getRelationshipById, relationship.getId())) {
+                return;
+            }
+
+            for (Node node : nodes) {
+                if (nodeRetries.isWaiting(node.getId()) && !node.hasRelationship()) {
+                    if (!isDue(node, System.currentTimeMillis())) {
+                        nodeRetries.forget(node.getId());
+                        continue;
+                    }
+
+                    statistics.expired();
                     config.getNodeExpirationStrategy().expire(node);
-                    expired++;
+
+                    if (!exists(database::getNodeById, node.getId())) {
+                        nodeRetries.forget(node.getId());
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Find out whether an entity exists, i.e. has not been deleted, e.g. by an expiration strategy in the current
+     * transaction. An entity that still exists after it has been given to an expiration strategy has been left in
+     * place.
+     *
+     * @param loader loading the entity by ID in the current transaction.
+     * @param id     of the entity.
+     * @return <code>true</code> iff the entity exists.
+     */
+    private static boolean exists(LongFunction<? extends Entity> loader, long id) {
+        try {
+            loader.apply(id);
+            return true;
+        } catch (NotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Find the earliest expiry date of the entities that have not been expired yet.
+     *
+     * @param context reached by the last run.
+     * @return earliest expiry date in ms since epoch, {@link Long#MAX_VALUE} if there are no such entities.
+     */
+    long nextExpiry(ExpirationContext context) {
+        return Math.min(indexer.earliestNodeExpiry(context.getNodeWatermark()), indexer.earliestRelationshipExpiry(context.getRelationshipWatermark()));
+    }
+
+    /**
+     * Progress of expiring entities of one type, see {@link ExpirationContext}.
+     */
+    private static final class Pass<T extends Entity> {
+
+        private final Retries retries;
+        private final Retries lockRetries;
+        private final ObjLongConsumer<T> rescheduler;
+        private final LongFunction<T> loader;
+        private final LongUnaryOperator earliestExpiry;
+        private final Comparator<? super T> lockOrder;
+        private final ToIntFunction<T> degree;
+        private final int relationshipLimit;
+        private final ExpirationStatistics statistics;
+
+        private long watermark;
+        private List<T> fetched;
+
+        /**
+         * @param retries           of entities left in place by the expiration strategy.
+         * @param earliestExpiry    earliest expiry date of the indexed entities that expire at or after a given time.
+         * @param lockRetries       of entities skipped because they are locked, <code>null</code> to leave those
+         *                          where they are instead of rescheduling them.
+         * @param degree            of an entity, to tell whether the strategy has made progress with an entity it
+         *                          has left in place, <code>null</code> for entities that have no degree.
+         * @param relationshipLimit maximum number of relationships the strategy may delete in a run, across all
+         *                          entities, {@link Integer#MAX_VALUE} for no limit. Ignored for entities that have
+         *                          no degree.
+         */
+        Pass(long watermark, Retries retries, Retries lockRetries, ObjLongConsumer<T> rescheduler, LongFunction<T> loader, LongUnaryOperator earliestExpiry, Comparator<? super T> lockOrder, ToIntFunction<T> degree, int relationshipLimit, ExpirationStatistics statistics) {
+            this.watermark = watermark;
+            this.retries = retries;
+            this.lockRetries = lockRetries;
+            this.rescheduler = rescheduler;
+            this.loader = loader;
+            this.earliestExpiry = earliestExpiry;
+            this.lockOrder = lockOrder;
+            this.degree = degree;
+            this.relationshipLimit = relationshipLimit;
+            this.statistics = statistics;
+        }
+
+        /**
+         * Fetch the entities to look at in this run: at most one more than the budget, to find out whether there are
+         * more expired entities than can be expired in this run.
+         *
+         * @param toExpire entities expiring between the watermark and now, <code>null</code> if there are none.
+         * @param budget   maximum number of entities to expire.
+         */
+        void fetch(ResourceIterator<T> toExpire, int budget) {
+            if (toExpire == null) {
+                return;
+            }
+
+            fetched = new ArrayList<>();
+
+            try (ResourceIterator<T> iterator = toExpire) {
+                while (fetched.size() <= budget && iterator.hasNext()) {
+                    fetched.add(iterator.next());
+                }
+            }
+        }
+
+        /**
+         * @param now current time.
+         * @return backlog of expired entities, overdue since the earliest expiry date among them.
+         */
+        Backlog backlog(long now) {
+            if (fetched == null || fetched.isEmpty()) {
+                return new Backlog(0, 0);
+            }
+
+            return new Backlog(fetched.size(), now - Math.min(now, earliestExpiry.applyAsLong(watermark)));
+        }
+
+        /**
+         * Expire the fetched entities. The ones left in place by the expiration strategy are rescheduled to be looked
+         * at again later, with exponential backoff, unless the strategy has deleted some of their relationships (e.g.
+         * a chunk of them), in which case they are rescheduled to be looked at again straight away. The ones that no
+         * longer exist, because they have been expired together with their last relationship earlier in the run, are
+         * passed over.
+         * <p>
+         * The ones skipped because they are locked by other transactions are rescheduled, too, with a short backoff of
+         * their own, so that they neither keep the watermark from moving past them nor use up the budget of every run
+         * while they stay locked. Without lock retries, they stay where they are and keep the watermark from moving
+         * past them, so that the next run looks at them again.
+         * <p>
+         * With a relationship limit, an entity is only given to the strategy if the relationships it can delete (all
+         * of the entity's, but no more than the limit) fit within what is left of the limit in this run. The others
+         * stay where they are and keep the watermark from moving past them, so that the next run looks at them again.
+         * The first entity always fits, so that each run makes progress.
+         * <p>
+         * With a lock order, the entities within the budget are expired in that order rather than in the order of
+         * their expiry dates.
+         *
+         * @param strategy to expire the entities with.
+         * @param budget   maximum number of entities to expire.
+         * @param now      current time.
+         * @param started  {@link System#nanoTime()} when the run started.
+         * @param nanos    time since <code>started</code> after which to stop, {@link Long#MAX_VALUE} for no limit.
+         * @param parallel expirer to expire the entities with in parallel, <code>null</code> to expire them in the
+         *                 current transaction.
+         * @param locks    to lock the entities with without waiting, <code>null</code> to let the strategy wait for
+         *                 the locks it needs.
+         * @return number of entities given to the strategy or skipped.
+         */
+        int run(ExpirationStrategy<T> strategy, int budget, long now, long started, long nanos, ParallelExpirer parallel, EntityLocks locks) {
+            if (fetched == null) {
+                return 0;
+            }
+
+            AtomicInteger skipped = new AtomicInteger();
+            AtomicInteger relationshipsLeft = new AtomicInteger(relationshipLimit);
+
+            Consumer<T> expire = entity -> {
+                if (!exists(loader, entity.getId())) {
+                    //deleted earlier in this run, e.g. together with its last expired relationship
+                    return;
+                }
+
+                int relationships = degree != null ? Math.min(degree.applyAsInt(entity), relationshipLimit) : 0;
+
+                if (!reserve(relationshipsLeft, relationships)) {
+                    //the relationships that may be deleted in this run have been used up by other entities
+                    skipped.incrementAndGet();
+                    return;
+                }
+
+                if (locks != null && !locks.tryLock(entity)) {
+                    relationshipsLeft.addAndGet(relationships);
+                    statistics.skipped();
+
+                    if (lockRetries != null) {
+                        try {
+                            rescheduler.accept(entity, lockRetries.nextAttempt(entity.getId(), now));
+                        } catch (NotFoundException e) {
+                            //deleted by the transaction holding the lock in the meantime, which also removes it from the index
+                            lockRetries.forget(entity.getId());
+                        }
+                    } else {
+                        skipped.incrementAndGet();
+                    }
                 } else {
-                    break;
+                    if (lockRetries != null) {
+                        lockRetries.forget(entity.getId());
+                    }
+
+                    int degreeBefore = degree != null ? degree.applyAsInt(entity) : 0;
+
+                    if (!expire(strategy, entity)) {
+                        if (degree != null && degree.applyAsInt(entity) < degreeBefore) {
+                            retries.forget(entity.getId());
+                            rescheduler.accept(entity, now);
+                        } else {
+                            rescheduler.accept(entity, retries.nextAttempt(entity.getId(), now));
+                        }
+                    }
+                }
+            };
+
+            int expired = 0;
+
+            if (parallel != null) {
+                expired = parallel.expire(fetched.subList(0, Math.min(budget, fetched.size())), lockOrder, loader, expire, started, nanos);
+            } else {
+                if (lockOrder != null) {
+                    fetched.subList(0, Math.min(budget, fetched.size())).sort(lockOrder);
+                }
+
+                while (expired < budget && expired < fetched.size() && (nanos == Long.MAX_VALUE || System.nanoTime() - started < nanos)) {
+                    expire.accept(fetched.get(expired++));
+                }
+            }
+
+            if (expired == fetched.size() && skipped.get() == 0) {
+                watermark = now + 1;
+            }
+
+            return expired;
+        }
+
+        /**
+         * Reserve a number of relationships out of what is left of the relationship limit in this run.
+         *
+         * @return <code>true</code> iff they have been reserved.
+         */
+        private static boolean reserve(AtomicInteger left, int relationships) {
+            while (true) {
+                int current = left.get();
+
+                if (relationships > current) {
+                    return false;
+                }
+
+                if (left.compareAndSet(current, current - relationships)) {
+                    return true;
                 }
             }
         }
 
-        return new EmptyContext();
+        /**
+         * @return <code>true</code> iff the entity has been expired, <code>false</code> if the strategy has left it
+         * in place.
+         */
+        private boolean expire(ExpirationStrategy<T> strategy, T entity) {
+            statistics.expired();
+
+            try {
+                strategy.expire(entity);
+            } catch (DeadlockDetectedException e) {
+                statistics.deadlock();
+                throw e;
+            }
+
+            return !exists(loader, entity.getId());
+        }
+
+        /**
+         * Move the watermark down if an entity expiring before it has been indexed.
+         *
+         * @param earliestIndexedExpiry earliest expiry date indexed since the last run.
+         */
+        void lowerTo(long earliestIndexedExpiry) {
+            if (earliestIndexedExpiry < watermark) {
+                watermark = earliestIndexedExpiry;
+            }
+        }
+    }
+
+    /**
+     * A run that has expired some entities, waiting for its transaction to finish so that it can be reported to the
+     * {@link AdaptiveBatchSize}.
+     */
+    private static final class Tick {
+
+        private final long started;
+        private final long workMillis;
+        private final boolean saturated;
+
+        Tick(long started, boolean saturated) {
+            this.started = started;
+            this.workMillis = millisSince(started);
+            this.saturated = saturated;
+        }
+
+        long millisSinceStarted() {
+            return millisSince(started);
+        }
+
+        private static long millisSince(long nanos) {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanos);
+        }
     }
 }
@@ -17,8 +17,12 @@
 package com.graphaware.neo4j.expire;
 
 import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.neo4j.expire.budget.ProportionalBudget;
+import com.graphaware.neo4j.expire.budget.RelationshipsFirst;
 import com.graphaware.neo4j.expire.config.ExpirationConfiguration;
+import com.graphaware.neo4j.expire.indexer.IndexerType;
 import com.graphaware.neo4j.expire.strategy.DeleteNodeAndRelationships;
+import com.graphaware.neo4j.expire.strategy.DeleteNodeAndRelationshipsInChunks;
 import com.graphaware.neo4j.expire.strategy.DeleteOrphanedNodeOnly;
 import com.graphaware.runtime.module.BaseRuntimeModuleBootstrapper;
 import com.graphaware.runtime.module.RuntimeModule;
@@ -26,6 +30,7 @@ import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.logging.Log;
 
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Bootstraps the {@link ExpirationModule} in server mode.
@@ -41,10 +46,37 @@ public class ExpirationModuleBootstrapper extends BaseRuntimeModuleBootstrapper<
     private static final String NODE_TTL_PROPERTY = "nodeTtlProperty";
     private static final String RELATIONSHIP_TTL_PROPERTY = "relationshipTtlProperty";
     private static final String NODE_EXPIRATION_STRATEGY = "nodeExpirationStrategy";
+    private static final String CHUNK_SIZE = "chunkSize";
     private static final String MAX_NO_EXPIRATIONS = "maxExpirations";
+    private static final String MIN_NO_EXPIRATIONS = "minExpirations";
+    private static final String TARGET_TICK_MILLIS = "targetTickMillis";
+    private static final String MAX_TICK_MILLIS = "maxTickMillis";
+    private static final String EXPIRY_THREADS = "expiryThreads";
+    private static final String DEADLINE_SCHEDULING = "deadlineScheduling";
+    private static final String SKIP_LOCKED_ENTITIES = "skipLockedEntities";
+    private static final String LOCK_ORDERING = "lockOrdering";
+    private static final String INITIALIZATION_THREADS = "initializationThreads";
+    private static final String INITIALIZATION_BATCH_SIZE = "initializationBatchSize";
+    private static final String BACKGROUND_INITIALIZATION = "backgroundInitialization";
+    private static final String INITIALIZATION_RATE = "initializationRate";
+    private static final String RECONCILIATION_RATE = "reconciliationRate";
+    private static final String INDEXER = "indexer";
+    private static final String NODE_INCLUSION_POLICY = "node";
+    private static final String RELATIONSHIP_INCLUSION_POLICY = "relationship";
+    private static final String BUDGET_POLICY = "budgetPolicy";
 
     private static final String FORCE_DELETE = "force";
     private static final String ORPHAN_DELETE = "orphan";
+    private static final String CHUNKED_DELETE = "chunked";
+
+    private static final String LEGACY_INDEXER = "legacy";
+    private static final String TIMING_WHEEL_INDEXER = "wheel";
+    private static final String OFF_HEAP_INDEXER = "offheap";
+    private static final String SCHEMA_INDEXER = "schema";
+    private static final String BUCKETED_INDEXER = "bucketed";
+
+    private static final String PROPORTIONAL_BUDGET = "proportional";
+    private static final String RELATIONSHIPS_FIRST_BUDGET = "relationshipsFirst";
 
     /**
      * {@inheritDoc}
@@ -103,6 +135,13 @@ public class ExpirationModuleBootstrapper extends BaseRuntimeModuleBootstrapper<
                 configuration = configuration.withNodeExpirationStrategy(DeleteNodeAndRelationships.getInstance());
             } else if (ORPHAN_DELETE.endsWith(nodeExpirationStrategy)) {
                 configuration = configuration.withNodeExpirationStrategy(DeleteOrphanedNodeOnly.getInstance());
+            } else if (CHUNKED_DELETE.equals(nodeExpirationStrategy)) {
+                int chunkSize = DeleteNodeAndRelationshipsInChunks.DEFAULT_CHUNK_SIZE;
+                if (configExists(config, CHUNK_SIZE)) {
+                    chunkSize = Integer.valueOf(config.get(CHUNK_SIZE));
+                    LOG.info("Chunk size set to %s", chunkSize);
+                }
+                configuration = configuration.withNodeExpirationStrategy(new DeleteNodeAndRelationshipsInChunks(chunkSize));
             } else {
                 LOG.error("Not a valid expiration strategy: %s", nodeExpirationStrategy);
                 throw new IllegalArgumentException("Not a valid expiration strategy.");
@@ -115,6 +154,128 @@ public class ExpirationModuleBootstrapper extends BaseRuntimeModuleBootstrapper<
             configuration = configuration.withMaxNoExpirations(Integer.valueOf(maxNoExpirations));
         }
 
+        if (configExists(config, MIN_NO_EXPIRATIONS)) {
+            String minNoExpirations = config.get(MIN_NO_EXPIRATIONS);
+            LOG.info("Min number of expirations set to %s", minNoExpirations);
+            configuration = configuration.withMinNoExpirations(Integer.valueOf(minNoExpirations));
+        }
+
+        if (configExists(config, TARGET_TICK_MILLIS)) {
+            String targetTickMillis = config.get(TARGET_TICK_MILLIS);
+            LOG.info("Target tick duration set to %s ms", targetTickMillis);
+            configuration = configuration.withTargetTickMillis(Long.valueOf(targetTickMillis));
+        }
+
+        if (configExists(config, MAX_TICK_MILLIS)) {
+            String maxTickMillis = config.get(MAX_TICK_MILLIS);
+            LOG.info("Max tick duration set to %s ms", maxTickMillis);
+            configuration = configuration.withMaxTickMillis(Long.valueOf(maxTickMillis));
+        }
+
+        if (configExists(config, EXPIRY_THREADS)) {
+            String expiryThreads = config.get(EXPIRY_THREADS);
+            LOG.info("Number of expiry threads set to %s", expiryThreads);
+            configuration = configuration.withExpiryThreads(Integer.valueOf(expiryThreads));
+        }
+
+        if (configExists(config, DEADLINE_SCHEDULING)) {
+            String deadlineScheduling = config.get(DEADLINE_SCHEDULING);
+            LOG.info("Deadline scheduling set to %s", deadlineScheduling);
+            configuration = configuration.withDeadlineScheduling(Boolean.valueOf(deadlineScheduling));
+        }
+
+        if (configExists(config, SKIP_LOCKED_ENTITIES)) {
+            String skipLockedEntities = config.get(SKIP_LOCKED_ENTITIES);
+            LOG.info("Skipping locked entities set to %s", skipLockedEntities);
+            configuration = configuration.withSkipLockedEntities(Boolean.valueOf(skipLockedEntities));
+        }
+
+        if (configExists(config, LOCK_ORDERING)) {
+            String lockOrdering = config.get(LOCK_ORDERING);
+            LOG.info("Lock ordering set to %s", lockOrdering);
+            configuration = configuration.withLockOrdering(Boolean.valueOf(lockOrdering));
+        }
+
+        if (configExists(config, INITIALIZATION_THREADS)) {
+            String initializationThreads = config.get(INITIALIZATION_THREADS);
+            LOG.info("Number of initialization threads set to %s", initializationThreads);
+            configuration = configuration.withInitializationThreads(Integer.valueOf(initializationThreads));
+        }
+
+        if (configExists(config, INITIALIZATION_BATCH_SIZE)) {
+            String initializationBatchSize = config.get(INITIALIZATION_BATCH_SIZE);
+            LOG.info("Initialization batch size set to %s", initializationBatchSize);
+            configuration = configuration.withInitializationBatchSize(Integer.valueOf(initializationBatchSize));
+        }
+
+        if (configExists(config, BACKGROUND_INITIALIZATION)) {
+            String backgroundInitialization = config.get(BACKGROUND_INITIALIZATION);
+            LOG.info("Background initialization set to %s", backgroundInitialization);
+            configuration = configuration.withBackgroundInitialization(Boolean.valueOf(backgroundInitialization));
+        }
+
+        if (configExists(config, INITIALIZATION_RATE)) {
+            String initializationRate = config.get(INITIALIZATION_RATE);
+            LOG.info("Initialization rate set to %s per second", initializationRate);
+            configuration = configuration.withInitializationRate(Integer.valueOf(initializationRate));
+        }
+
+        if (configExists(config, RECONCILIATION_RATE)) {
+            String reconciliationRate = config.get(RECONCILIATION_RATE);
+            LOG.info("Reconciliation rate set to %s per second", reconciliationRate);
+            configuration = configuration.withReconciliationRate(Integer.valueOf(reconciliationRate));
+        }
+
+        if (configExists(config, NODE_INCLUSION_POLICY)) {
+            Set<String> labels = InclusionExpressions.labels(config.get(NODE_INCLUSION_POLICY));
+            if (!labels.isEmpty()) {
+                LOG.info("Initialization limited to nodes with labels %s", labels);
+                configuration = configuration.withInitializationLabels(labels);
+            }
+        }
+
+        if (configExists(config, RELATIONSHIP_INCLUSION_POLICY)) {
+            Set<String> types = InclusionExpressions.relationshipTypes(config.get(RELATIONSHIP_INCLUSION_POLICY));
+            if (!types.isEmpty()) {
+                LOG.info("Initialization limited to relationships of types %s", types);
+                configuration = configuration.withInitializationRelationshipTypes(types);
+            }
+        }
+
+        if (configExists(config, INDEXER)) {
+            String indexer = config.get(INDEXER);
+
+            LOG.info("Indexer set to %s", indexer);
+            if (LEGACY_INDEXER.equals(indexer)) {
+                configuration = configuration.withIndexerType(IndexerType.LEGACY);
+            } else if (TIMING_WHEEL_INDEXER.equals(indexer)) {
+                configuration = configuration.withIndexerType(IndexerType.TIMING_WHEEL);
+            } else if (OFF_HEAP_INDEXER.equals(indexer)) {
+                configuration = configuration.withIndexerType(IndexerType.OFF_HEAP);
+            } else if (SCHEMA_INDEXER.equals(indexer)) {
+                configuration = configuration.withIndexerType(IndexerType.SCHEMA);
+            } else if (BUCKETED_INDEXER.equals(indexer)) {
+                configuration = configuration.withIndexerType(IndexerType.BUCKETED);
+            } else {
+                LOG.error("Not a valid indexer: %s", indexer);
+                throw new IllegalArgumentException("Not a valid indexer.");
+            }
+        }
+
+        if (configExists(config, BUDGET_POLICY)) {
+            String budgetPolicy = config.get(BUDGET_POLICY);
+
+            LOG.info("Budget policy set to %s", budgetPolicy);
+            if (PROPORTIONAL_BUDGET.equals(budgetPolicy)) {
+                configuration = configuration.withBudgetPolicy(ProportionalBudget.getInstance());
+            } else if (RELATIONSHIPS_FIRST_BUDGET.equals(budgetPolicy)) {
+                configuration = configuration.withBudgetPolicy(RelationshipsFirst.getInstance());
+            } else {
+                LOG.error("Not a valid budget policy: %s", budgetPolicy);
+                throw new IllegalArgumentException("Not a valid budget policy.");
+            }
+        }
+
         return new ExpirationModule(moduleId, database, configuration);
     }
 
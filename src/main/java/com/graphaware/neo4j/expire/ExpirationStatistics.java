@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the work done by the {@link ExpirationModule} since it started, for monitoring e.g. how often expiring
+ * entities runs into deadlocks with other transactions. Thread-safe.
+ */
+public final class ExpirationStatistics {
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong deadlocks = new AtomicLong();
+    private final AtomicLong missing = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong dangling = new AtomicLong();
+
+    void run() {
+        runs.incrementAndGet();
+    }
+
+    void expired() {
+        expired.incrementAndGet();
+    }
+
+    void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    void deadlock() {
+        deadlocks.incrementAndGet();
+    }
+
+    void missing(long count) {
+        missing.addAndGet(count);
+    }
+
+    void stale(long count) {
+        stale.addAndGet(count);
+    }
+
+    void dangling(long count) {
+        dangling.addAndGet(count);
+    }
+
+    /**
+     * @return number of runs that have looked for expired entities.
+     */
+    public long getRuns() {
+        return runs.get();
+    }
+
+    /**
+     * @return number of entities given to the expiration strategy, including ones in transactions that have later
+     * been rolled back.
+     */
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * @return number of entities skipped because they were locked by other transactions.
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return number of deadlocks detected while expiring entities.
+     */
+    public long getDeadlocks() {
+        return deadlocks.get();
+    }
+
+    /**
+     * @return number of entities found missing from the expiration index by reconciliation, and indexed.
+     */
+    public long getMissing() {
+        return missing.get();
+    }
+
+    /**
+     * @return number of expiration index entries found by reconciliation not to match the expiry date of their
+     * entity, and corrected or removed.
+     */
+    public long getStale() {
+        return stale.get();
+    }
+
+    /**
+     * @return number of expiration index entries found by reconciliation to belong to entities that no longer exist,
+     * and removed.
+     */
+    public long getDangling() {
+        return dangling.get();
+    }
+
+    /**
+     * @return number of deadlocks per run, 0 if there have been no runs.
+     */
+    public double getDeadlockRate() {
+        long runs = getRuns();
+        return runs == 0 ? 0 : (double) getDeadlocks() / runs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ExpirationStatistics{" +
+                "runs=" + getRuns() +
+                ", expired=" + getExpired() +
+                ", skipped=" + getSkipped() +
+                ", deadlocks=" + getDeadlocks() +
+                ", missing=" + getMissing() +
+                ", stale=" + getStale() +
+                ", dangling=" + getDangling() +
+                '}';
+    }
+}
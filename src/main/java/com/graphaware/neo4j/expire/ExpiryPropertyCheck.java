@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.neo4j.expire;
+
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A {@link TransactionEventHandler} that finds out, once per transaction, whether the transaction has set or removed
+ * any expiration or TTL property. It only looks at the keys of the property entries of the raw {@link TransactionData},
+ * so that the {@link ExpirationModule} does not have to read the properties of every created, changed and deleted
+ * entity of transactions that have nothing to do with expiry.
+ * <p>
+ * Neo4j calls transaction event handlers in the order they have been registered and the GraphAware runtime registers
+ * its own before any module is started, so the module usually sees a transaction before this handler does. Work handed
+ * to {@link #whenChecked(Consumer)} is therefore run as soon as the outcome is known: straight away if this handler
+ * has already seen the transaction, or from this handler's {@link #beforeCommit(TransactionData)} otherwise.
+ */
+final class ExpiryPropertyCheck implements TransactionEventHandler<Void> {
+
+    private final Set<String> nodeProperties = new HashSet<>();
+    private final Set<String> relationshipProperties = new HashSet<>();
+
+    /**
+     * Outcome of the check ({@link Boolean}) or work waiting for it ({@link Consumer}), for the current transaction.
+     */
+    private final ThreadLocal<Object> state = new ThreadLocal<>();
+
+    ExpiryPropertyCheck(Set<String> nodeProperties, Set<String> relationshipProperties) {
+        this.nodeProperties.addAll(nodeProperties);
+        this.relationshipProperties.addAll(relationshipProperties);
+    }
+
+    /**
+     * Run work that depends on whether the current transaction has touched an expiration or TTL property.
+     *
+     * @param work to run, taking <code>true</code> iff the transaction has touched one of the properties.
+     */
+    void whenChecked(Consumer<Boolean> work) {
+        Object outcome = state.get();
+
+        if (outcome instanceof Boolean) {
+            work.accept((Boolean) outcome);
+        } else {
+            state.set(work);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Void beforeCommit(TransactionData data) {
+        boolean touched = touched(data);
+
+        Object waiting = state.get();
+        state.set(touched);
+
+        if (waiting instanceof Consumer) {
+            ((Consumer<Boolean>) waiting).accept(touched);
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterCommit(TransactionData data, Void ignored) {
+        state.remove();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterRollback(TransactionData data, Void ignored) {
+        state.remove();
+    }
+
+    /**
+     * Properties of created entities are reported as assigned and properties of deleted entities as removed, so these
+     * two cover creation, update and deletion alike.
+     */
+    private boolean touched(TransactionData data) {
+        return !nodeProperties.isEmpty() && (anyOf(data.assignedNodeProperties(), nodeProperties) || anyOf(data.removedNodeProperties(), nodeProperties))
+                || !relationshipProperties.isEmpty() && (anyOf(data.assignedRelationshipProperties(), relationshipProperties) || anyOf(data.removedRelationshipProperties(), relationshipProperties));
+    }
+
+    private static <T> boolean anyOf(Iterable<PropertyEntry<T>> entries, Set<String> properties) {
+        for (PropertyEntry<T> entry : entries) {
+            if (properties.contains(entry.key())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Recognises the SpEL inclusion policy expressions that only include nodes with certain labels (e.g.
+ * <code>hasLabel('A') || hasLabel('B')</code>) or relationships of certain types (e.g.
+ * <code>isType('R') || type == 'S'</code>), so that initialization can be limited to these.
+ */
+final class InclusionExpressions {
+
+    private static final Pattern HAS_LABEL = Pattern.compile("hasLabel\\('([^']+)'\\)");
+    private static final Pattern IS_TYPE = Pattern.compile("isType\\('([^']+)'\\)|type\\s*==\\s*'([^']+)'");
+
+    private InclusionExpressions() {
+    }
+
+    /**
+     * @param expression node inclusion policy expression.
+     * @return labels of all nodes the expression can include, empty if it can include nodes without any of them.
+     */
+    static Set<String> labels(String expression) {
+        return alternatives(expression, HAS_LABEL);
+    }
+
+    /**
+     * @param expression relationship inclusion policy expression.
+     * @return types of all relationships the expression can include, empty if it can include any type.
+     */
+    static Set<String> relationshipTypes(String expression) {
+        return alternatives(expression, IS_TYPE);
+    }
+
+    private static Set<String> alternatives(String expression, Pattern pattern) {
+        Set<String> result = new LinkedHashSet<>();
+
+        for (String alternative : expression.split("\\|\\|")) {
+            Matcher matcher = pattern.matcher(strip(alternative));
+
+            if (!matcher.matches()) {
+                return Collections.emptySet();
+            }
+
+            result.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+        }
+
+        return result;
+    }
+
+    private static String strip(String expression) {
+        String result = expression.trim();
+
+        while (result.startsWith("(") && result.endsWith(")")) {
+            result = result.substring(1, result.length() - 1).trim();
+        }
+
+        return result;
+    }
+}
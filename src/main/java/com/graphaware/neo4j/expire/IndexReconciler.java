@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.neo4j.expire.config.ExpirationConfiguration;
+import com.graphaware.neo4j.expire.indexer.ExpirationIndexer;
+import com.graphaware.neo4j.expire.indexer.ExpiryDates;
+import org.neo4j.graphdb.Entity;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.store.id.IdType;
+import org.neo4j.logging.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Repairs drift between the expiration index and the expiry dates of entities, e.g. caused by failed transactions or
+ * manual changes to the index, continuously and at a capped rate, on a thread of its own. Each round walks
+ * <ul>
+ * <li>all nodes and relationships in chunks of IDs, indexing those missing from the index, and</li>
+ * <li>all index entries in chunks of expiry dates (where the indexer supports it), correcting entries under the wrong
+ * expiry date, and removing those of entities that no longer have an expiry date (stale) or no longer exist
+ * (dangling) or are no longer included by the inclusion policy,</li>
+ * </ul>
+ * each chunk in its own transaction, and logs what has been repaired. Repairs are also counted in
+ * {@link ExpirationStatistics}.
+ * <p>
+ * Only expiry dates given by the expiration property are checked, as expiry dates worked out from a TTL depend on
+ * when the TTL was set. Entities left in place by the expiration strategy and waiting to be looked at again are not
+ * checked either, as they are deliberately indexed under a different expiry date.
+ * <p>
+ * An entity is read-locked before its expiry date is read and compared with the index, so that a transaction changing
+ * the date cannot commit in between and have its index entry overwritten with the old date.
+ */
+final class IndexReconciler {
+
+    private static final Log LOG = LoggerFactory.getLogger(IndexReconciler.class);
+
+    static final int CHUNK_SIZE = 1000;
+
+    private static final long FAILURE_DELAY_MILLIS = 1_000;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+
+    private final GraphDatabaseService database;
+    private final ExpirationIndexer indexer;
+    private final Runnable committed;
+    private final ExpirationStatistics statistics;
+    private final Throttle throttle;
+    private final Kind<Node> nodes;
+    private final Kind<Relationship> relationships;
+    private final Thread thread;
+
+    private final Repairs round = new Repairs();
+    private Repairs chunk;
+    private volatile boolean running = true;
+
+    /**
+     * @param database             to reconcile.
+     * @param indexer              to reconcile.
+     * @param committed            to run after each transaction has been committed and the indexer told about it.
+     * @param config               of the module.
+     * @param nodesWaiting         whether a node has been left in place or skipped, and rescheduled.
+     * @param relationshipsWaiting whether a relationship has been left in place or skipped, and rescheduled.
+     * @param statistics           to count repairs in.
+     */
+    IndexReconciler(GraphDatabaseService database, ExpirationIndexer indexer, Runnable committed, ExpirationConfiguration config, LongPredicate nodesWaiting, LongPredicate relationshipsWaiting, ExpirationStatistics statistics) {
+        this.database = database;
+        this.indexer = indexer;
+        this.committed = committed;
+        this.statistics = statistics;
+        this.throttle = new Throttle(config.getReconciliationRate());
+
+        this.nodes = new Kind<>(config.getNodeExpirationIndex() != null, IdType.NODE, database::getNodeById,
+                config.getInclusionPolicies().getNodeInclusionPolicy()::include, nodesWaiting,
+                config.getNodeExpirationProperty(), config.getNodeTtlProperty(),
+                indexer::isNodeIndexed, indexer::rescheduleNode, indexer::removeNode, indexer::indexNode, indexer::walkNodeEntries);
+
+        this.relationships = new Kind<>(config.getRelationshipExpirationIndex() != null, IdType.RELATIONSHIP, database::getRelationshipById,
+                config.getInclusionPolicies().getRelationshipInclusionPolicy()::include, relationshipsWaiting,
+                config.getRelationshipExpirationProperty(), config.getRelationshipTtlProperty(),
+                indexer::isRelationshipIndexed, indexer::rescheduleRelationship, indexer::removeRelationship, indexer::indexRelationship, indexer::walkRelationshipEntries);
+
+        this.thread = new Thread(this::run, "GraphAware-Expire-Reconciler");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stop the reconciler, waiting for a chunk in progress to finish.
+     */
+    void shutdown() {
+        running = false;
+        thread.interrupt();
+
+        try {
+            thread.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long started = System.nanoTime();
+
+        while (running) {
+            throttle.acquire(CHUNK_SIZE);
+
+            try {
+                if (!reconcileChunk()) {
+                    LOG.info("Reconciled expiration index in %s s: %s missing, %s stale, and %s dangling entries repaired", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started), round.missing, round.stale, round.dangling);
+                    round.reset();
+                    nodes.restart();
+                    relationships.restart();
+                    started = System.nanoTime();
+                }
+            } catch (RuntimeException e) {
+                if (running) {
+                    LOG.warn("Reconciling expiration index failed, trying again in " + FAILURE_DELAY_MILLIS + " ms", e);
+                    sleep(FAILURE_DELAY_MILLIS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reconcile the next chunk of the current round.
+     *
+     * @return <code>false</code> iff the round is complete.
+     */
+    private boolean reconcileChunk() {
+        if (nodes.nextId < Long.MAX_VALUE) {
+            nodes.nextId = inTransaction(tx -> checkEntities(tx, nodes));
+        } else if (relationships.nextId < Long.MAX_VALUE) {
+            relationships.nextId = inTransaction(tx -> checkEntities(tx, relationships));
+        } else if (nodes.nextExpiry < Long.MAX_VALUE) {
+            nodes.nextExpiry = inTransaction(tx -> checkEntries(tx, nodes));
+        } else if (relationships.nextExpiry < Long.MAX_VALUE) {
+            relationships.nextExpiry = inTransaction(tx -> checkEntries(tx, relationships));
+        } else {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Run a chunk in its own transaction, counting its repairs once it has been committed.
+     *
+     * @return the result of the chunk.
+     */
+    private long inTransaction(ToLongFunction<Transaction> work) {
+        long result;
+
+        chunk = new Repairs();
+        indexer.beforeCommit();
+
+        try (Transaction tx = database.beginTx()) {
+            result = work.applyAsLong(tx);
+            indexer.flush();
+            tx.success();
+        } catch (RuntimeException e) {
+            indexer.afterRollback();
+            throw e;
+        }
+
+        indexer.afterCommit();
+        committed.run();
+
+        round.missing += chunk.missing;
+        round.stale += chunk.stale;
+        round.dangling += chunk.dangling;
+        statistics.missing(chunk.missing);
+        statistics.stale(chunk.stale);
+        statistics.dangling(chunk.dangling);
+
+        return result;
+    }
+
+    /**
+     * Index entities of a chunk of IDs that are missing from the index.
+     *
+     * @return ID to continue from, {@link Long#MAX_VALUE} if all have been looked at.
+     */
+    private <T extends Entity> long checkEntities(Transaction tx, Kind<T> kind) {
+        long ids = ParallelInitializer.highestIdInUse(database, kind.idType) + 1;
+        long to = Math.min(ids, kind.nextId + CHUNK_SIZE);
+
+        for (long id = kind.nextId; id < to; id++) {
+            T entity;
+            long expiryDate;
+            try {
+                entity = kind.loader.apply(id);
+
+                //entities without an expiry date are indexed by the transaction that gives them one
+                if (kind.waiting.test(id) || !kind.hasExpiry(entity)) {
+                    continue;
+                }
+
+                tx.acquireReadLock(entity);
+
+                if (!kind.included.test(entity)) {
+                    continue;
+                }
+
+                expiryDate = kind.expiryDate(entity);
+            } catch (NotFoundException e) {
+                //unused ID, or deleted in the meantime
+                continue;
+            }
+
+            if (expiryDate != ExpiryDates.NONE && !kind.isIndexed.test(entity, expiryDate)) {
+                kind.reschedule.accept(entity, expiryDate);
+                chunk.missing++;
+            }
+        }
+
+        return to >= ids ? Long.MAX_VALUE : to;
+    }
+
+    /**
+     * Correct or remove stale and dangling entries of a chunk of the index.
+     *
+     * @return expiry date to continue from, {@link Long#MAX_VALUE} if all entries have been looked at.
+     */
+    private <T extends Entity> long checkEntries(Transaction tx, Kind<T> kind) {
+        return kind.walk.walk(kind.nextExpiry, CHUNK_SIZE, (entity, indexedDate) -> {
+            long expiryDate;
+
+            try {
+                if (kind.waiting.test(entity.getId())) {
+                    return;
+                }
+
+                tx.acquireReadLock(entity);
+
+                if (!kind.included.test(entity)) {
+                    kind.remove.accept(entity);
+                    chunk.stale++;
+                    return;
+                }
+
+                if (!kind.hasExpiry(entity)) {
+                    //indexing again makes indexers that index by the entity itself drop it, too
+                    kind.remove.accept(entity);
+                    kind.index.accept(entity);
+                    chunk.stale++;
+                    return;
+                }
+
+                expiryDate = kind.expiryDate(entity);
+            } catch (NotFoundException e) {
+                kind.remove.accept(entity);
+                chunk.dangling++;
+                return;
+            }
+
+            if (expiryDate != ExpiryDates.NONE && expiryDate != indexedDate) {
+                kind.reschedule.accept(entity, expiryDate);
+                chunk.stale++;
+            }
+        });
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Numbers of repaired entries.
+     */
+    private static final class Repairs {
+
+        private long missing;
+        private long stale;
+        private long dangling;
+
+        void reset() {
+            missing = 0;
+            stale = 0;
+            dangling = 0;
+        }
+    }
+
+    /**
+     * Walks {@link ExpirationIndexer} entries of one type of entity.
+     */
+    private interface Walk<T> {
+
+        long walk(long from, int limit, ObjLongConsumer<T> consumer);
+    }
+
+    /**
+     * How to reconcile one type of entity, and how far the current round has got with it.
+     */
+    private static final class Kind<T extends Entity> {
+
+        private final boolean configured;
+        private final IdType idType;
+        private final LongFunction<T> loader;
+        private final Predicate<T> included;
+        private final LongPredicate waiting;
+        private final String expirationProperty;
+        private final String ttlProperty;
+        private final BiPredicate<T, Long> isIndexed;
+        private final ObjLongConsumer<T> reschedule;
+        private final Consumer<T> remove;
+        private final Consumer<T> index;
+        private final Walk<T> walk;
+
+        private long nextId;
+        private long nextExpiry;
+
+        Kind(boolean configured, IdType idType, LongFunction<T> loader, Predicate<T> included, LongPredicate waiting, String expirationProperty, String ttlProperty,
+             BiPredicate<T, Long> isIndexed, ObjLongConsumer<T> reschedule, Consumer<T> remove, Consumer<T> index, Walk<T> walk) {
+            this.configured = configured;
+            this.idType = idType;
+            this.loader = loader;
+            this.included = included;
+            this.waiting = waiting;
+            this.expirationProperty = expirationProperty;
+            this.ttlProperty = ttlProperty;
+            this.isIndexed = isIndexed;
+            this.reschedule = reschedule;
+            this.remove = remove;
+            this.index = index;
+            this.walk = walk;
+
+            restart();
+        }
+
+        void restart() {
+            nextId = configured ? 0 : Long.MAX_VALUE;
+            nextExpiry = configured ? 0 : Long.MAX_VALUE;
+        }
+
+        boolean hasExpiry(T entity) {
+            return (expirationProperty != null && entity.hasProperty(expirationProperty)) || (ttlProperty != null && entity.hasProperty(ttlProperty));
+        }
+
+        /**
+         * @return expiry date given by the expiration property of the entity, {@link ExpiryDates#NONE} if there is
+         * none, or it also has a TTL.
+         */
+        long expiryDate(T entity) {
+            if (expirationProperty == null || (ttlProperty != null && entity.hasProperty(ttlProperty))) {
+                return ExpiryDates.NONE;
+            }
+
+            Object value = entity.getProperty(expirationProperty, null);
+
+            return value != null ? ExpiryDates.expiryDate(value) : ExpiryDates.NONE;
+        }
+    }
+}
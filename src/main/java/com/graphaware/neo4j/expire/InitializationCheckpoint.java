@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import com.graphaware.common.log.LoggerFactory;
+import org.neo4j.logging.Log;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * How far the initialization of the module has got, kept in a file, so that initialization interrupted by a restart
+ * can resume there rather than start all over again.
+ * <p>
+ * Initialization goes through a number of phases (e.g. relationships, then nodes), each looking at all IDs of one type
+ * of entity in ascending order. The checkpoint holds the current phase and an ID below which all IDs have been looked
+ * at in that phase. It also holds a fingerprint of the configuration it has been made with, and is deleted if the
+ * configuration has changed since. A checkpoint that cannot be read or written is treated as if there was none, and
+ * deleted, too.
+ */
+final class InitializationCheckpoint {
+
+    private static final Log LOG = LoggerFactory.getLogger(InitializationCheckpoint.class);
+
+    private final Path file;
+    private final long fingerprint;
+
+    InitializationCheckpoint(Path file, long fingerprint) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @param phase of initialization.
+     * @return ID from which to (re)start the phase: 0 if it has not been started, {@link Long#MAX_VALUE} if it has
+     * been completed.
+     */
+    long resumeFrom(int phase) {
+        long[] checkpoint = read();
+
+        if (checkpoint == null || checkpoint[1] < phase) {
+            return 0;
+        }
+
+        if (checkpoint[1] > phase) {
+            return Long.MAX_VALUE;
+        }
+
+        return checkpoint[2];
+    }
+
+    /**
+     * @return <code>true</code> iff there is a checkpoint made with the same configuration, i.e. initialization has
+     * been started (and not completed) before.
+     */
+    boolean exists() {
+        return read() != null;
+    }
+
+    /**
+     * Make sure there is a checkpoint, so that initialization is known to be incomplete until the checkpoint is
+     * {@link #clear()}ed.
+     */
+    void begin() {
+        if (!exists()) {
+            save(0, 0);
+        }
+    }
+
+    /**
+     * Record that all IDs below the given one have been looked at in the given phase.
+     *
+     * @param phase  of initialization.
+     * @param nextId first ID not known to have been looked at.
+     */
+    void save(int phase, long nextId) {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try {
+            Files.write(temporary, Collections.singletonList(fingerprint + " " + phase + " " + nextId), StandardCharsets.UTF_8);
+            Files.move(temporary, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Could not write initialization checkpoint " + file, e);
+        }
+    }
+
+    /**
+     * Remove the checkpoint once initialization has completed.
+     */
+    void clear() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Could not delete initialization checkpoint " + file, e);
+        }
+    }
+
+    /**
+     * @return fingerprint, phase and next ID of the checkpoint, <code>null</code> if there is no checkpoint made with
+     * the same configuration, in which case one made with a different configuration or an invalid one is deleted.
+     */
+    private long[] read() {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            String[] values = lines.isEmpty() ? new String[0] : lines.get(0).trim().split(" ");
+
+            if (values.length == 3) {
+                long[] checkpoint = {Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2])};
+
+                if (checkpoint[0] == fingerprint) {
+                    return checkpoint;
+                }
+
+                LOG.info("Deleting initialization checkpoint %s made with a different configuration", file);
+                clear();
+                return null;
+            }
+        } catch (IOException | NumberFormatException e) {
+            LOG.warn("Could not read initialization checkpoint " + file, e);
+        }
+
+        LOG.warn("Deleting invalid initialization checkpoint %s", file);
+        clear();
+        return null;
+    }
+}
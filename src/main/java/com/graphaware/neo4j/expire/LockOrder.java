@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.Comparator;
+
+/**
+ * Orders in which to expire entities, so that the locks needed for deleting them are taken in a consistent order, the
+ * same in which application transactions that touch many entities usually take them: ascending by node ID.
+ */
+final class LockOrder {
+
+    /**
+     * Nodes by ID.
+     */
+    static final Comparator<Node> NODES = Comparator.comparingLong(Node::getId);
+
+    /**
+     * Relationships by the lower and then the higher ID of their nodes, which is the order in which deleting them
+     * locks their nodes, and then by ID.
+     */
+    static final Comparator<Relationship> RELATIONSHIPS = Comparator
+            .comparingLong((Relationship relationship) -> Math.min(relationship.getStartNodeId(), relationship.getEndNodeId()))
+            .thenComparingLong(relationship -> Math.max(relationship.getStartNodeId(), relationship.getEndNodeId()))
+            .thenComparingLong(Relationship::getId);
+
+    private LockOrder() {
+    }
+}
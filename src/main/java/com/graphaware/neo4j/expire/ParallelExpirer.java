@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.neo4j.expire.indexer.ExpirationIndexer;
+import org.neo4j.graphdb.Entity;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Expires entities using a number of worker threads, each expiring its own share of the entities in its own
+ * transactions of at most {@link #TRANSACTION_SIZE} entities.
+ * <p>
+ * Entities are sorted by ID (or in a given lock order) and split into contiguous ranges, one per worker, and each
+ * worker expires its range in that order, so that workers rarely need the same locks and, when they do, take them in
+ * the same order. A
+ * transaction that fails (e.g. because of a deadlock) stops its worker; the entities it has not expired are left for
+ * the next run, and index changes made by the transaction are dropped.
+ */
+final class ParallelExpirer {
+
+    private static final Log LOG = LoggerFactory.getLogger(ParallelExpirer.class);
+
+    static final int TRANSACTION_SIZE = 100;
+
+    private final GraphDatabaseService database;
+    private final ExpirationIndexer indexer;
+    private final int threads;
+    private final ExecutorService executor;
+
+    ParallelExpirer(GraphDatabaseService database, ExpirationIndexer indexer, int threads) {
+        this.database = database;
+        this.indexer = indexer;
+        this.threads = threads;
+
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "GraphAware-Expire-Worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Expire entities and wait until all workers have finished.
+     *
+     * @param entities to expire.
+     * @param order    in which to expire the entities, <code>null</code> for ascending order of IDs.
+     * @param loader   loading an entity by ID in the worker's transaction.
+     * @param expire   expiring a single entity.
+     * @param started  {@link System#nanoTime()} when the run started.
+     * @param nanos    time since <code>started</code> after which to stop, {@link Long#MAX_VALUE} for no limit.
+     * @param <T>      type of the entities.
+     * @return number of entities that have been handed to <code>expire</code> in transactions that have committed.
+     */
+    <T extends Entity> int expire(List<T> entities, Comparator<? super T> order, LongFunction<T> loader, Consumer<T> expire, long started, long nanos) {
+        if (order != null) {
+            entities = new ArrayList<>(entities);
+            entities.sort(order);
+        }
+
+        long[] ids = new long[entities.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = entities.get(i).getId();
+        }
+
+        if (order == null) {
+            Arrays.sort(ids);
+        }
+
+        List<Future<Integer>> futures = new ArrayList<>();
+        int rangeSize = (ids.length + threads - 1) / threads;
+
+        for (int from = 0; from < ids.length; from += rangeSize) {
+            futures.add(executor.submit(new Worker<>(ids, from, Math.min(ids.length, from + rangeSize), loader, expire, started, nanos)));
+        }
+
+        int expired = 0;
+        for (Future<Integer> future : futures) {
+            try {
+                expired += future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                LOG.warn("Expiry worker failed", e.getCause());
+            }
+        }
+
+        return expired;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private final class Worker<T extends Entity> implements Callable<Integer> {
+
+        private final long[] ids;
+        private final int from;
+        private final int to;
+        private final LongFunction<T> loader;
+        private final Consumer<T> expire;
+        private final long started;
+        private final long nanos;
+
+        Worker(long[] ids, int from, int to, LongFunction<T> loader, Consumer<T> expire, long started, long nanos) {
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+            this.loader = loader;
+            this.expire = expire;
+            this.started = started;
+            this.nanos = nanos;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Integer call() {
+            int expired = 0;
+            int position = from;
+
+            while (position < to && timeLeft()) {
+                int end = Math.min(to, position + TRANSACTION_SIZE);
+                int expiredInTx = 0;
+
+                indexer.beforeCommit();
+
+                try (Transaction tx = database.beginTx()) {
+                    while (position + expiredInTx < end && timeLeft()) {
+                        try {
+                            expire.accept(loader.apply(ids[position + expiredInTx]));
+                        } catch (NotFoundException e) {
+                            //deleted in the meantime, nothing to do
+                        }
+                        expiredInTx++;
+                    }
+                    indexer.flush();
+                    tx.success();
+                } catch (RuntimeException e) {
+                    indexer.afterRollback();
+                    LOG.warn("Failed to expire entities, will try again next time: %s", e.getMessage());
+                    return expired;
+                }
+
+                indexer.afterCommit();
+
+                expired += expiredInTx;
+                position += expiredInTx;
+            }
+
+            return expired;
+        }
+
+        private boolean timeLeft() {
+            return nanos == Long.MAX_VALUE || System.nanoTime() - started < nanos;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.neo4j.expire.indexer.ExpirationIndexer;
+import org.neo4j.graphdb.Entity;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.store.id.IdGeneratorFactory;
+import org.neo4j.kernel.impl.store.id.IdType;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+
+/**
+ * Looks at all nodes or relationships (or all nodes with given labels) using a number of threads. The ID space, up to
+ * the highest ID in use (or the IDs of the nodes with the labels, found using the label scan store), is split into
+ * ranges of a batch size, which the threads take one at a time, each looking at the entities of a range in its own
+ * transaction. The {@link ExpirationIndexer} is told about each of these transactions, like about the ones processed by
+ * the module, so that what has been indexed can be expired while initialization is still going on. The number of IDs
+ * looked at per second can be capped, so that initialization does not compete with the application for I/O.
+ * <p>
+ * Each entity is read-locked before it is given to the consumer, so that a transaction changing its expiry date, e.g.
+ * during background initialization, cannot commit before the range's transaction and have the old date indexed after
+ * the new one.
+ * <p>
+ * Progress and throughput are logged every {@link #PROGRESS_INTERVAL_MILLIS} ms, when a checkpoint is also reported: an
+ * ID below which all IDs have been looked at, from which looking at all entities can later be resumed.
+ */
+final class ParallelInitializer {
+
+    private static final Log LOG = LoggerFactory.getLogger(ParallelInitializer.class);
+
+    static final long PROGRESS_INTERVAL_MILLIS = 10_000;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+
+    private final GraphDatabaseService database;
+    private final ExpirationIndexer indexer;
+    private final Runnable committed;
+    private final int threads;
+    private final int batchSize;
+    private final Throttle throttle;
+
+    /**
+     * @param database  to look at.
+     * @param indexer   to tell about the transactions.
+     * @param committed to run after each transaction has been committed and the indexer told about it.
+     * @param threads   number of threads.
+     * @param batchSize number of IDs looked at per transaction.
+     * @param rate      maximum number of IDs looked at per second, 0 for no limit.
+     */
+    ParallelInitializer(GraphDatabaseService database, ExpirationIndexer indexer, Runnable committed, int threads, int batchSize, int rate) {
+        this.database = database;
+        this.indexer = indexer;
+        this.committed = committed;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.throttle = new Throttle(rate);
+    }
+
+    /**
+     * Look at all nodes from a given ID on and wait until done.
+     *
+     * @param fromId     first ID to look at.
+     * @param consumer   to give each node to, in the transaction of its range.
+     * @param checkpoint to report checkpoints to.
+     */
+    void forAllNodes(long fromId, Consumer<Node> consumer, LongConsumer checkpoint) {
+        forAll("node", new IdRange(highestIdInUse(database, IdType.NODE) + 1), fromId, database::getNodeById, consumer, checkpoint);
+    }
+
+    /**
+     * Look at all nodes with at least one of the given labels from a given ID on and wait until done.
+     *
+     * @param labels     names of the labels.
+     * @param fromId     first ID to look at.
+     * @param consumer   to give each node to, in the transaction of its range. Each node is given once.
+     * @param checkpoint to report checkpoints to.
+     */
+    void forNodesWithLabels(Collection<String> labels, long fromId, Consumer<Node> consumer, LongConsumer checkpoint) {
+        forAll("labelled node", new ListedIds(nodesWithLabels(labels)), fromId, database::getNodeById, consumer, checkpoint);
+    }
+
+    /**
+     * Look at all relationships from a given ID on and wait until done.
+     *
+     * @param fromId     first ID to look at.
+     * @param consumer   to give each relationship to, in the transaction of its range.
+     * @param checkpoint to report checkpoints to.
+     */
+    void forAllRelationships(long fromId, Consumer<Relationship> consumer, LongConsumer checkpoint) {
+        forAll("relationship", new IdRange(highestIdInUse(database, IdType.RELATIONSHIP) + 1), fromId, database::getRelationshipById, consumer, checkpoint);
+    }
+
+    private <T extends Entity> void forAll(String type, Ids ids, long fromId, LongFunction<T> loader, Consumer<T> consumer, LongConsumer checkpoint) {
+        long count = ids.count();
+        long start = ids.positionOf(fromId);
+
+        if (start >= count) {
+            return;
+        }
+
+        if (fromId > 0) {
+            LOG.info("Resuming looking at all %ss from ID %s", type, fromId);
+        }
+
+        Ranges ranges = new Ranges(start, threads);
+        Progress progress = new Progress(type, start, count);
+
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "GraphAware-Expire-Initializer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (int i = 0; i < threads; i++) {
+                int worker = i;
+                futures.add(executor.submit(() -> {
+                    long from;
+                    while (!Thread.currentThread().isInterrupted() && (from = ranges.claim(worker, batchSize)) < count) {
+                        long to = Math.min(count, from + batchSize);
+
+                        throttle.acquire(to - from);
+                        indexer.beforeCommit();
+
+                        try (Transaction tx = database.beginTx()) {
+                            for (long position = from; position < to; position++) {
+                                try {
+                                    T entity = loader.apply(ids.idAt(position));
+                                    tx.acquireReadLock(entity);
+                                    consumer.accept(entity);
+                                } catch (NotFoundException e) {
+                                    //unused ID, or deleted in the meantime
+                                }
+                            }
+                            indexer.flush();
+                            tx.success();
+                        } catch (RuntimeException e) {
+                            indexer.afterRollback();
+                            throw e;
+                        }
+
+                        indexer.afterCommit();
+                        committed.run();
+                        ranges.completed(worker);
+
+                        if (progress.done(to - from)) {
+                            checkpoint.accept(ids.idAt(Math.min(count, ranges.lowestUnfinished())));
+                        }
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            if (ranges.lowestUnfinished() < count) {
+                checkpoint.accept(ids.idAt(ranges.lowestUnfinished()));
+                throw new RuntimeException("Interrupted while looking at all " + type + "s");
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            awaitTermination(executor);
+            checkpoint.accept(ids.idAt(Math.min(count, ranges.lowestUnfinished())));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while looking at all " + type + "s", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to look at all " + type + "s", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        progress.finished();
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Initializer threads did not finish within %s ms", SHUTDOWN_TIMEOUT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param database to look at.
+     * @param idType   type of entity.
+     * @return highest ID that may be in use by entities of the type.
+     */
+    static long highestIdInUse(GraphDatabaseService database, IdType idType) {
+        return ((GraphDatabaseAPI) database).getDependencyResolver().resolveDependency(IdGeneratorFactory.class).get(idType).getHighestPossibleIdInUse();
+    }
+
+    private long[] nodesWithLabels(Collection<String> labels) {
+        long[] ids = new long[1024];
+        int size = 0;
+
+        try (Transaction tx = database.beginTx()) {
+            for (String label : labels) {
+                try (ResourceIterator<Node> nodes = database.findNodes(Label.label(label))) {
+                    while (nodes.hasNext()) {
+                        if (size == ids.length) {
+                            ids = Arrays.copyOf(ids, size * 2);
+                        }
+                        ids[size++] = nodes.next().getId();
+                    }
+                }
+            }
+            tx.success();
+        }
+
+        Arrays.sort(ids, 0, size);
+
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || ids[i] != ids[distinct - 1]) {
+                ids[distinct++] = ids[i];
+            }
+        }
+
+        return Arrays.copyOf(ids, distinct);
+    }
+
+    /**
+     * IDs to look at, in ascending order, each at a position from 0 to {@link #count()}.
+     */
+    private interface Ids {
+
+        long count();
+
+        /**
+         * @param position from 0 to {@link #count()}, inclusive.
+         * @return ID at the position, or one greater than the last ID for {@link #count()}.
+         */
+        long idAt(long position);
+
+        /**
+         * @param id to look for.
+         * @return position of the first ID not lower than the given one, {@link #count()} if there is none.
+         */
+        long positionOf(long id);
+    }
+
+    /**
+     * All IDs from 0 up to a given count.
+     */
+    private static final class IdRange implements Ids {
+
+        private final long count;
+
+        IdRange(long count) {
+            this.count = count;
+        }
+
+        @Override
+        public long count() {
+            return count;
+        }
+
+        @Override
+        public long idAt(long position) {
+            return position;
+        }
+
+        @Override
+        public long positionOf(long id) {
+            return Math.min(id, count);
+        }
+    }
+
+    /**
+     * Given distinct IDs.
+     */
+    private static final class ListedIds implements Ids {
+
+        private final long[] ids;
+
+        ListedIds(long[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public long count() {
+            return ids.length;
+        }
+
+        @Override
+        public long idAt(long position) {
+            if (position < ids.length) {
+                return ids[(int) position];
+            }
+
+            return ids.length == 0 ? 0 : ids[ids.length - 1] + 1;
+        }
+
+        @Override
+        public long positionOf(long id) {
+            int position = Arrays.binarySearch(ids, id);
+            return position >= 0 ? position : -position - 1;
+        }
+    }
+
+    /**
+     * Ranges of positions handed out to the workers, in ascending order.
+     */
+    private static final class Ranges {
+
+        private final long[] inProgress;
+        private long next;
+
+        Ranges(long start, int workers) {
+            this.next = start;
+            this.inProgress = new long[workers];
+            Arrays.fill(inProgress, Long.MAX_VALUE);
+        }
+
+        synchronized long claim(int worker, int size) {
+            inProgress[worker] = next;
+            next += size;
+            return inProgress[worker];
+        }
+
+        synchronized void completed(int worker) {
+            inProgress[worker] = Long.MAX_VALUE;
+        }
+
+        synchronized long lowestUnfinished() {
+            long lowest = next;
+            for (long from : inProgress) {
+                lowest = Math.min(lowest, from);
+            }
+            return lowest;
+        }
+    }
+
+    /**
+     * Number of positions looked at so far, logged with the throughput from time to time.
+     */
+    private static final class Progress {
+
+        private final String type;
+        private final long start;
+        private final long total;
+        private final long started = System.nanoTime();
+        private final AtomicLong done;
+        private final AtomicLong lastLogged = new AtomicLong(System.currentTimeMillis());
+
+        Progress(String type, long start, long total) {
+            this.type = type;
+            this.start = start;
+            this.total = total;
+            this.done = new AtomicLong(start);
+        }
+
+        /**
+         * @param ids number of IDs just looked at.
+         * @return <code>true</code> iff progress has been logged.
+         */
+        boolean done(long ids) {
+            long doneSoFar = done.addAndGet(ids);
+            long now = System.currentTimeMillis();
+            long last = lastLogged.get();
+
+            if (now - last >= PROGRESS_INTERVAL_MILLIS && lastLogged.compareAndSet(last, now)) {
+                LOG.info("Looked at %s of %s %s IDs (%s per second)", doneSoFar, total, type, perSecond(doneSoFar - start));
+                return true;
+            }
+
+            return false;
+        }
+
+        void finished() {
+            LOG.info("Looked at all %s %s IDs in %s s (%s per second)", total, type, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started), perSecond(total - start));
+        }
+
+        private long perSecond(long ids) {
+            long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            return ids * 1000 / millis;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Expired entities of one type that could not be expired yet, e.g. because they have been left in place by the
+ * expiration strategy, along with the number of times that has happened, so that they can be looked at again with
+ * exponential backoff rather than on every run.
+ * <p>
+ * Kept in memory only. After a restart, entities that are still waiting are retried with the initial delay.
+ */
+final class Retries {
+
+    static final long INITIAL_DELAY = 1_000;
+    static final long MAX_DELAY = 3_600_000;
+
+    private final ConcurrentMap<Long, Integer> attempts = new ConcurrentHashMap<>();
+    private final long initialDelay;
+    private final long maxDelay;
+
+    /**
+     * Create retries with a delay of {@link #INITIAL_DELAY}, doubling up to {@link #MAX_DELAY}.
+     */
+    Retries() {
+        this(INITIAL_DELAY, MAX_DELAY);
+    }
+
+    /**
+     * @param initialDelay delay in ms after the first attempt.
+     * @param maxDelay     maximum delay in ms, no matter how many attempts have been made.
+     */
+    Retries(long initialDelay, long maxDelay) {
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Record that an attempt to expire an entity has not succeeded and work out when to look at it next.
+     *
+     * @param id  of the entity.
+     * @param now current time.
+     * @return time of the next attempt to expire the entity, in ms since epoch.
+     */
+    long nextAttempt(long id, long now) {
+        int attempt = attempts.merge(id, 1, Integer::sum);
+        return now + (attempt > Long.numberOfLeadingZeros(initialDelay) ? maxDelay : Math.min(maxDelay, initialDelay << (attempt - 1)));
+    }
+
+    /**
+     * @param id of the entity.
+     * @return <code>true</code> iff an attempt to expire the entity has not succeeded and it has not been expired or
+     * deleted since.
+     */
+    boolean isWaiting(long id) {
+        return attempts.containsKey(id);
+    }
+
+    /**
+     * Forget an entity, because it has been expired or deleted.
+     *
+     * @param id of the entity.
+     */
+    void forget(long id) {
+        attempts.remove(id);
+    }
+
+    boolean isEmpty() {
+        return attempts.isEmpty();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the number of units of work (e.g. entities looked at) done per second by any number of threads together, by
+ * making each of them wait until the units handed out before have had their share of time.
+ */
+final class Throttle {
+
+    private final long nanosPerUnit;
+    private long nextFree = System.nanoTime();
+
+    /**
+     * @param unitsPerSecond maximum number of units per second, 0 for no limit.
+     */
+    Throttle(int unitsPerSecond) {
+        this.nanosPerUnit = unitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / unitsPerSecond : 0;
+    }
+
+    /**
+     * Wait until a number of units of work can be done. Returns early, with the interrupt flag set, if the thread is
+     * interrupted.
+     *
+     * @param units of work about to be done.
+     */
+    void acquire(long units) {
+        if (nanosPerUnit == 0) {
+            return;
+        }
+
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextFree = Math.max(nextFree, now);
+            wait = nextFree - now;
+            nextFree += units * nanosPerUnit;
+        }
+
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.budget;
+
+/**
+ * Expired entities of one type that are waiting to be expired.
+ */
+public final class Backlog {
+
+    private final int size;
+    private final long overdueMillis;
+
+    /**
+     * Construct a new backlog.
+     *
+     * @param size          number of expired entities waiting, possibly capped at a little over the budget.
+     * @param overdueMillis how long the earliest of them has been overdue, in ms.
+     */
+    public Backlog(int size, long overdueMillis) {
+        this.size = size;
+        this.overdueMillis = Math.max(0, overdueMillis);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getOverdueMillis() {
+        return overdueMillis;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.budget;
+
+/**
+ * A policy for dividing the maximum number of expirations in one go between relationships and nodes.
+ */
+public interface BudgetPolicy {
+
+    /**
+     * Work out how many relationships to expire in one go. The rest of the budget goes to nodes.
+     *
+     * @param budget        maximum number of entities to expire in one go.
+     * @param relationships backlog of expired relationships.
+     * @param nodes         backlog of expired nodes.
+     * @return number of relationships to expire, between 0 and <code>budget</code>.
+     */
+    int relationshipBudget(int budget, Backlog relationships, Backlog nodes);
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.budget;
+
+import com.graphaware.common.serialize.Serializer;
+import com.graphaware.common.serialize.SingletonSerializer;
+
+/**
+ * {@link BudgetPolicy} that divides the budget between relationships and nodes in proportion to their backlogs,
+ * weighted by how long the earliest expired entity of each has been overdue: each minute counts as much as its size
+ * again, for up to an hour.
+ * <p>
+ * Each non-empty backlog gets at least one expiration (budget permitting), and the part of the budget one backlog
+ * cannot use goes to the other one.
+ */
+public final class ProportionalBudget implements BudgetPolicy {
+
+    static {
+        Serializer.register(ProportionalBudget.class, new SingletonSerializer());
+    }
+
+    private static final double OVERDUE_MILLIS_PER_WEIGHT = 60_000;
+    private static final long MAX_OVERDUE_MILLIS = 60 * 60_000;
+
+    private static final ProportionalBudget INSTANCE = new ProportionalBudget();
+
+    public static ProportionalBudget getInstance() {
+        return INSTANCE;
+    }
+
+    private ProportionalBudget() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int relationshipBudget(int budget, Backlog relationships, Backlog nodes) {
+        if (relationships.getSize() == 0 || nodes.getSize() == 0) {
+            return Math.min(budget, relationships.getSize());
+        }
+
+        double relationshipWeight = weight(relationships);
+        double nodeWeight = weight(nodes);
+
+        int result = (int) Math.round(budget * relationshipWeight / (relationshipWeight + nodeWeight));
+
+        if (budget > 1) {
+            result = Math.max(1, Math.min(budget - 1, result));
+        }
+
+        return Math.min(relationships.getSize(), Math.max(result, budget - nodes.getSize()));
+    }
+
+    private static double weight(Backlog backlog) {
+        return backlog.getSize() * (1 + Math.min(backlog.getOverdueMillis(), MAX_OVERDUE_MILLIS) / OVERDUE_MILLIS_PER_WEIGHT);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.budget;
+
+import com.graphaware.common.serialize.Serializer;
+import com.graphaware.common.serialize.SingletonSerializer;
+
+/**
+ * {@link BudgetPolicy} that spends the budget on relationships first and only what is left of it on nodes. With a
+ * steady backlog of expired relationships, nodes may never get expired.
+ */
+public final class RelationshipsFirst implements BudgetPolicy {
+
+    static {
+        Serializer.register(RelationshipsFirst.class, new SingletonSerializer());
+    }
+
+    private static final RelationshipsFirst INSTANCE = new RelationshipsFirst();
+
+    public static RelationshipsFirst getInstance() {
+        return INSTANCE;
+    }
+
+    private RelationshipsFirst() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int relationshipBudget(int budget, Backlog relationships, Backlog nodes) {
+        return Math.min(budget, relationships.getSize());
+    }
+}
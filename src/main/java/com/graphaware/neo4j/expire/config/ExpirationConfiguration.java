@@ -20,6 +20,9 @@ import com.graphaware.common.policy.inclusion.InclusionPolicies;
 import com.graphaware.common.policy.role.InstanceRolePolicy;
 import com.graphaware.common.policy.role.WritableRole;
 import com.graphaware.neo4j.expire.ExpirationModule;
+import com.graphaware.neo4j.expire.budget.BudgetPolicy;
+import com.graphaware.neo4j.expire.budget.RelationshipsFirst;
+import com.graphaware.neo4j.expire.indexer.IndexerType;
 import com.graphaware.neo4j.expire.strategy.DeleteOrphanedNodeOnly;
 import com.graphaware.neo4j.expire.strategy.DeleteRelationship;
 import com.graphaware.neo4j.expire.strategy.ExpirationStrategy;
@@ -30,6 +33,9 @@ import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.springframework.util.Assert;
 
+import java.util.Collections;
+import java.util.Set;
+
 
 /**
  * {@link BaseTxAndTimerDrivenModuleConfiguration} for {@link ExpirationModule}.
@@ -45,6 +51,22 @@ public class ExpirationConfiguration extends BaseTxAndTimerDrivenModuleConfigura
     private static final ExpirationStrategy<Node> DEFAULT_NODE_EXPIRATION_STRATEGY = DeleteOrphanedNodeOnly.getInstance();
     private static final ExpirationStrategy<Relationship> DEFAULT_RELATIONSHIP_EXPIRATION_STRATEGY = DeleteRelationship.getInstance();
     private static final int DEFAULT_MAX_NO_EXPIRATIONS = 1000;
+    private static final IndexerType DEFAULT_INDEXER_TYPE = IndexerType.LEGACY;
+    private static final BudgetPolicy DEFAULT_BUDGET_POLICY = RelationshipsFirst.getInstance();
+    private static final long DEFAULT_TARGET_TICK_MILLIS = 0;
+    private static final int DEFAULT_MIN_NO_EXPIRATIONS = 1;
+    private static final long DEFAULT_MAX_TICK_MILLIS = 0;
+    private static final int DEFAULT_EXPIRY_THREADS = 0;
+    private static final boolean DEFAULT_DEADLINE_SCHEDULING = false;
+    private static final boolean DEFAULT_SKIP_LOCKED_ENTITIES = false;
+    private static final boolean DEFAULT_LOCK_ORDERING = false;
+    private static final int DEFAULT_INITIALIZATION_THREADS = 1;
+    private static final int DEFAULT_INITIALIZATION_BATCH_SIZE = 1000;
+    private static final Set<String> DEFAULT_INITIALIZATION_LABELS = Collections.emptySet();
+    private static final Set<String> DEFAULT_INITIALIZATION_RELATIONSHIP_TYPES = Collections.emptySet();
+    private static final boolean DEFAULT_BACKGROUND_INITIALIZATION = false;
+    private static final int DEFAULT_INITIALIZATION_RATE = 0;
+    private static final int DEFAULT_RECONCILIATION_RATE = 0;
 
     private String nodeExpirationIndex;
     private String relationshipExpirationIndex;
@@ -55,24 +77,56 @@ public class ExpirationConfiguration extends BaseTxAndTimerDrivenModuleConfigura
     private ExpirationStrategy<Node> nodeExpirationStrategy;
     private ExpirationStrategy<Relationship> relationshipExpirationStrategy;
     private int maxNoExpirations;
+    private IndexerType indexerType;
+    private BudgetPolicy budgetPolicy;
+    private long targetTickMillis;
+    private int minNoExpirations;
+    private long maxTickMillis;
+    private int expiryThreads;
+    private boolean deadlineScheduling;
+    private boolean skipLockedEntities;
+    private boolean lockOrdering;
+    private int initializationThreads;
+    private int initializationBatchSize;
+    private Set<String> initializationLabels;
+    private Set<String> initializationRelationshipTypes;
+    private boolean backgroundInitialization;
+    private int initializationRate;
+    private int reconciliationRate;
 
     /**
      * Construct a new configuration.
      *
-     * @param inclusionPolicies              policies for inclusion of nodes, relationships, and properties for processing by the module. Must not be <code>null</code>.
-     * @param initializeUntil                until what time in ms since epoch it is ok to re(initialize) the entire module in case the configuration
+     * @param inclusionPolicies               policies for inclusion of nodes, relationships, and properties for processing by the module. Must not be <code>null</code>.
+     * @param initializeUntil                 until what time in ms since epoch it is ok to re(initialize) the entire module in case the configuration
      *                                       has changed since the last time the module was started, or if it is the first time the module was registered.
      *                                       {@link #NEVER} for never, {@link #ALWAYS} for always.
-     * @param instanceRolePolicy             specifies which role a machine must have in order to run the module with this configuration. Must not be <code>null</code>.
-     * @param nodeExpirationIndex            name of the legacy index where node expiry dates are stored. Can be <code>null</code>.
-     * @param relationshipExpirationIndex    name of the legacy index where relationship expiry dates are stored. Can be <code>null</code>.
-     * @param nodeExpirationProperty         name of the node property that specifies the expiration date in ms since epoch. Can be <code>null</code>.
-     * @param relationshipExpirationProperty name of the relationship property that specifies the expiration date in ms since epoch. Can be <code>null</code>.
-     * @param nodeTtlProperty                name of the node property that specifies the TTL in ms. Can be <code>null</code>.
-     * @param relationshipTtlProperty        name of the relationship property that specifies the TTL in ms. Can be <code>null</code>.
-     * @param maxNoExpirations               maximum number of expired nodes or relationships in one go.
-     * @param nodeExpirationStrategy         expiration strategy for nodes. Must not be <code>null</code>.
-     * @param relationshipExpirationStrategy expiration strategy for relationships. Must not be <code>null</code>.
+     * @param instanceRolePolicy              specifies which role a machine must have in order to run the module with this configuration. Must not be <code>null</code>.
+     * @param nodeExpirationIndex             name of the legacy index where node expiry dates are stored. Can be <code>null</code>.
+     * @param relationshipExpirationIndex     name of the legacy index where relationship expiry dates are stored. Can be <code>null</code>.
+     * @param nodeExpirationProperty          name of the node property that specifies the expiration date in ms since epoch. Can be <code>null</code>.
+     * @param relationshipExpirationProperty  name of the relationship property that specifies the expiration date in ms since epoch. Can be <code>null</code>.
+     * @param nodeTtlProperty                 name of the node property that specifies the TTL in ms. Can be <code>null</code>.
+     * @param relationshipTtlProperty         name of the relationship property that specifies the TTL in ms. Can be <code>null</code>.
+     * @param maxNoExpirations                maximum number of expired nodes or relationships in one go.
+     * @param nodeExpirationStrategy          expiration strategy for nodes. Must not be <code>null</code>.
+     * @param relationshipExpirationStrategy  expiration strategy for relationships. Must not be <code>null</code>.
+     * @param indexerType                     type of the indexer that keeps track of expiry dates. Must not be <code>null</code>.
+     * @param budgetPolicy                    policy for dividing <code>maxNoExpirations</code> between relationships and nodes. Must not be <code>null</code>.
+     * @param targetTickMillis                target duration in ms of expiring entities in one go, including the commit, for adapting the number of entities expired in one go between <code>minNoExpirations</code> and <code>maxNoExpirations</code>. 0 for always expiring up to <code>maxNoExpirations</code>.
+     * @param minNoExpirations                minimum number of expired nodes or relationships in one go when adapting it to <code>targetTickMillis</code>.
+     * @param maxTickMillis                   maximum duration in ms of expiring entities in one go, checked before each entity. 0 for no limit.
+     * @param expiryThreads                   number of worker threads that expire entities in parallel, each in its own transactions. 0 for expiring them in the transaction of the timer-driven module.
+     * @param deadlineScheduling              whether entities are expired by a dedicated thread that wakes up at the next known expiry date, instead of on each call of the timer-driven module.
+     * @param skipLockedEntities              whether entities locked by other transactions are skipped and left for the next run, instead of waiting for the locks.
+     * @param lockOrdering                    whether each batch of expired entities is expired in a consistent lock order: nodes by ID, relationships by the IDs of their nodes.
+     * @param initializationThreads           number of threads that look at all nodes and relationships when the module is initialized, each taking its own ranges of IDs.
+     * @param initializationBatchSize         number of nodes/relationships looked at per transaction when the module is initialized.
+     * @param initializationLabels            labels of all nodes that can be included by the inclusion policy, or empty if it can include nodes without them; initialization only looks at nodes with these labels.
+     * @param initializationRelationshipTypes types of all relationships that can be included by the inclusion policy, or empty if any type can be included; initialization skips relationships of other types.
+     * @param backgroundInitialization        whether the module is initialized by a background thread, so that startup does not wait for it, rather than before it starts.
+     * @param initializationRate              maximum number of nodes/relationships looked at per second when the module is initialized, 0 for no limit.
+     * @param reconciliationRate              maximum number of nodes/relationships and index entries looked at per second by a background job that repairs drift between the expiration index and the graph, 0 for no such job.
      */
     private ExpirationConfiguration(InclusionPolicies inclusionPolicies, long initializeUntil,
                                     InstanceRolePolicy instanceRolePolicy,
@@ -84,7 +138,23 @@ public class ExpirationConfiguration extends BaseTxAndTimerDrivenModuleConfigura
                                     String relationshipTtlProperty,
                                     int maxNoExpirations,
                                     ExpirationStrategy<Node> nodeExpirationStrategy,
-                                    ExpirationStrategy<Relationship> relationshipExpirationStrategy) {
+                                    ExpirationStrategy<Relationship> relationshipExpirationStrategy,
+                                    IndexerType indexerType,
+                                    BudgetPolicy budgetPolicy,
+                                    long targetTickMillis,
+                                    int minNoExpirations,
+                                    long maxTickMillis,
+                                    int expiryThreads,
+                                    boolean deadlineScheduling,
+                                    boolean skipLockedEntities,
+                                    boolean lockOrdering,
+                                    int initializationThreads,
+                                    int initializationBatchSize,
+                                    Set<String> initializationLabels,
+                                    Set<String> initializationRelationshipTypes,
+                                    boolean backgroundInitialization,
+                                    int initializationRate,
+                                    int reconciliationRate) {
 
         super(inclusionPolicies, initializeUntil, instanceRolePolicy);
         this.nodeExpirationIndex = nodeExpirationIndex;
@@ -96,6 +166,22 @@ public class ExpirationConfiguration extends BaseTxAndTimerDrivenModuleConfigura
         this.maxNoExpirations = maxNoExpirations;
         this.nodeExpirationStrategy = nodeExpirationStrategy;
         this.relationshipExpirationStrategy = relationshipExpirationStrategy;
+        this.indexerType = indexerType;
+        this.budgetPolicy = budgetPolicy;
+        this.targetTickMillis = targetTickMillis;
+        this.minNoExpirations = minNoExpirations;
+        this.maxTickMillis = maxTickMillis;
+        this.expiryThreads = expiryThreads;
+        this.deadlineScheduling = deadlineScheduling;
+        this.skipLockedEntities = skipLockedEntities;
+        this.lockOrdering = lockOrdering;
+        this.initializationThreads = initializationThreads;
+        this.initializationBatchSize = initializationBatchSize;
+        this.initializationLabels = initializationLabels;
+        this.initializationRelationshipTypes = initializationRelationshipTypes;
+        this.backgroundInitialization = backgroundInitialization;
+        this.initializationRate = initializationRate;
+        this.reconciliationRate = reconciliationRate;
     }
 
     public void validate() {
@@ -107,6 +193,10 @@ public class ExpirationConfiguration extends BaseTxAndTimerDrivenModuleConfigura
 
         Assert.notNull(nodeExpirationStrategy, "node expiration strategy must not be null");
         Assert.notNull(relationshipExpirationStrategy, "relationship expiration strategy must not be null");
+        Assert.notNull(indexerType, "indexer type must not be null");
+        Assert.notNull(budgetPolicy, "budget policy must not be null");
+        Assert.notNull(initializationLabels, "initialization labels must not be null");
+        Assert.notNull(initializationRelationshipTypes, "initialization relationship types must not be null");
 
         if (nodeExpirationIndex != null && StringUtils.equals(nodeTtlProperty, nodeExpirationProperty)) {
             throw new IllegalStateException("Node TTL and expiration property are not allowed to be the same!");
@@ -119,6 +209,38 @@ public class ExpirationConfiguration extends BaseTxAndTimerDrivenModuleConfigura
         if (maxNoExpirations < 0) {
             throw new IllegalStateException("Max number of expirations must be at least 0 (ideally > 0)!");
         }
+
+        if (expiryThreads < 0) {
+            throw new IllegalStateException("Number of expiry threads must be at least 0!");
+        }
+
+        if (initializationThreads < 1) {
+            throw new IllegalStateException("Number of initialization threads must be at least 1!");
+        }
+
+        if (initializationBatchSize < 1) {
+            throw new IllegalStateException("Initialization batch size must be at least 1!");
+        }
+
+        if (initializationRate < 0) {
+            throw new IllegalStateException("Initialization rate must be at least 0!");
+        }
+
+        if (reconciliationRate < 0) {
+            throw new IllegalStateException("Reconciliation rate must be at least 0!");
+        }
+
+        if (maxTickMillis < 0) {
+            throw new IllegalStateException("Max tick duration must be at least 0!");
+        }
+
+        if (targetTickMillis < 0) {
+            throw new IllegalStateException("Target tick duration must be at least 0!");
+        }
+
+        if (targetTickMillis > 0 && (minNoExpirations < 1 || minNoExpirations > maxNoExpirations)) {
+            throw new IllegalStateException("Min number of expirations must be at least 1 and at most the max number of expirations!");
+        }
     }
 
     private void cleanup() {
@@ -146,10 +268,16 @@ public class ExpirationConfiguration extends BaseTxAndTimerDrivenModuleConfigura
      * initialize until = {@link #ALWAYS}, instance role policy = {@link WritableRole},
      * and {@link #DEFAULT_NODE_EXPIRATION_INDEX}, {@link #DEFAULT_RELATIONSHIP_EXPIRATION_INDEX},{@link #DEFAULT_NODE_EXPIRATION_PROPERTY},
      * {@link #DEFAULT_RELATIONSHIP_EXPIRATION_PROPERTY},{@link #DEFAULT_NODE_TTL_PROPERTY}, {@link #DEFAULT_RELATIONSHIP_TTL_PROPERTY},
-     * {@link #DEFAULT_NODE_EXPIRATION_STRATEGY}, and {@link #DEFAULT_RELATIONSHIP_EXPIRATION_STRATEGY}.
+     * {@link #DEFAULT_NODE_EXPIRATION_STRATEGY}, {@link #DEFAULT_RELATIONSHIP_EXPIRATION_STRATEGY}, {@link #DEFAULT_INDEXER_TYPE}, {@link #DEFAULT_BUDGET_POLICY},
+     * {@link #DEFAULT_TARGET_TICK_MILLIS}, {@link #DEFAULT_MIN_NO_EXPIRATIONS}, {@link #DEFAULT_MAX_TICK_MILLIS},
+     * {@link #DEFAULT_EXPIRY_THREADS}, {@link #DEFAULT_DEADLINE_SCHEDULING}, {@link #DEFAULT_SKIP_LOCKED_ENTITIES},
+     * {@link #DEFAULT_LOCK_ORDERING}, {@link #DEFAULT_INITIALIZATION_THREADS}, {@link #DEFAULT_INITIALIZATION_BATCH_SIZE},
+     * {@link #DEFAULT_INITIALIZATION_LABELS}, {@link #DEFAULT_INITIALIZATION_RELATIONSHIP_TYPES},
+     * {@link #DEFAULT_BACKGROUND_INITIALIZATION}, {@link #DEFAULT_INITIALIZATION_RATE}, and
+     * {@link #DEFAULT_RECONCILIATION_RATE}.
      */
     public static ExpirationConfiguration defaultConfiguration() {
-        return new ExpirationConfiguration(InclusionPolicies.all(), ALWAYS, WritableRole.getInstance(), DEFAULT_NODE_EXPIRATION_INDEX, DEFAULT_RELATIONSHIP_EXPIRATION_INDEX, DEFAULT_NODE_EXPIRATION_PROPERTY, DEFAULT_RELATIONSHIP_EXPIRATION_PROPERTY, DEFAULT_NODE_TTL_PROPERTY, DEFAULT_RELATIONSHIP_TTL_PROPERTY, DEFAULT_MAX_NO_EXPIRATIONS, DEFAULT_NODE_EXPIRATION_STRATEGY, DEFAULT_RELATIONSHIP_EXPIRATION_STRATEGY);
+        return new ExpirationConfiguration(InclusionPolicies.all(), ALWAYS, WritableRole.getInstance(), DEFAULT_NODE_EXPIRATION_INDEX, DEFAULT_RELATIONSHIP_EXPIRATION_INDEX, DEFAULT_NODE_EXPIRATION_PROPERTY, DEFAULT_RELATIONSHIP_EXPIRATION_PROPERTY, DEFAULT_NODE_TTL_PROPERTY, DEFAULT_RELATIONSHIP_TTL_PROPERTY, DEFAULT_MAX_NO_EXPIRATIONS, DEFAULT_NODE_EXPIRATION_STRATEGY, DEFAULT_RELATIONSHIP_EXPIRATION_STRATEGY, DEFAULT_INDEXER_TYPE, DEFAULT_BUDGET_POLICY, DEFAULT_TARGET_TICK_MILLIS, DEFAULT_MIN_NO_EXPIRATIONS, DEFAULT_MAX_TICK_MILLIS, DEFAULT_EXPIRY_THREADS, DEFAULT_DEADLINE_SCHEDULING, DEFAULT_SKIP_LOCKED_ENTITIES, DEFAULT_LOCK_ORDERING, DEFAULT_INITIALIZATION_THREADS, DEFAULT_INITIALIZATION_BATCH_SIZE, DEFAULT_INITIALIZATION_LABELS, DEFAULT_INITIALIZATION_RELATIONSHIP_TYPES, DEFAULT_BACKGROUND_INITIALIZATION, DEFAULT_INITIALIZATION_RATE, DEFAULT_RECONCILIATION_RATE);
     }
 
     /**
@@ -157,43 +285,107 @@ public class ExpirationConfiguration extends BaseTxAndTimerDrivenModuleConfigura
      */
     @Override
     protected ExpirationConfiguration newInstance(InclusionPolicies inclusionPolicies, long initializeUntil, InstanceRolePolicy instanceRolePolicy) {
-        return new ExpirationConfiguration(inclusionPolicies, initializeUntil, instanceRolePolicy, getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy());
+        return new ExpirationConfiguration(inclusionPolicies, initializeUntil, instanceRolePolicy, getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
     }
 
     public ExpirationConfiguration withNodeExpirationIndex(String nodeExpirationIndex) {
-        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), nodeExpirationIndex, getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy());
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), nodeExpirationIndex, getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
     }
 
     public ExpirationConfiguration withRelationshipExpirationIndex(String relationshipExpirationIndex) {
-        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), relationshipExpirationIndex, getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy());
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), relationshipExpirationIndex, getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
     }
 
     public ExpirationConfiguration withNodeExpirationProperty(String nodeExpirationProperty) {
-        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), nodeExpirationProperty, getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy());
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), nodeExpirationProperty, getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
     }
 
     public ExpirationConfiguration withRelationshipExpirationProperty(String relationshipExpirationProperty) {
-        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), relationshipExpirationProperty, getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy());
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), relationshipExpirationProperty, getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
     }
 
     public ExpirationConfiguration withNodeTtlProperty(String nodeTtlProperty) {
-        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), nodeTtlProperty, getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy());
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), nodeTtlProperty, getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
     }
 
     public ExpirationConfiguration withRelationshipTtlProperty(String relationshipTtlProperty) {
-        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), relationshipTtlProperty, getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy());
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), relationshipTtlProperty, getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
     }
 
     public ExpirationConfiguration withNodeExpirationStrategy(ExpirationStrategy<Node> nodeExpirationStrategy) {
-        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), nodeExpirationStrategy, getRelationshipExpirationStrategy());
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), nodeExpirationStrategy, getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
     }
 
     public ExpirationConfiguration withRelationshipExpirationStrategy(ExpirationStrategy<Relationship> relationshipExpirationStrategy) {
-        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), relationshipExpirationStrategy);
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), relationshipExpirationStrategy, getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
     }
 
     public ExpirationConfiguration withMaxNoExpirations(int maxNoExpirations) {
-        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), maxNoExpirations, getNodeExpirationStrategy(), getRelationshipExpirationStrategy());
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), maxNoExpirations, getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withIndexerType(IndexerType indexerType) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), indexerType, getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withBudgetPolicy(BudgetPolicy budgetPolicy) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), budgetPolicy, getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withTargetTickMillis(long targetTickMillis) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), targetTickMillis, getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withMinNoExpirations(int minNoExpirations) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), minNoExpirations, getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withMaxTickMillis(long maxTickMillis) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), maxTickMillis, getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withExpiryThreads(int expiryThreads) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), expiryThreads, isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withDeadlineScheduling(boolean deadlineScheduling) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), deadlineScheduling, isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withSkipLockedEntities(boolean skipLockedEntities) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), skipLockedEntities, isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withLockOrdering(boolean lockOrdering) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), lockOrdering, getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withInitializationThreads(int initializationThreads) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), initializationThreads, getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withInitializationBatchSize(int initializationBatchSize) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), initializationBatchSize, getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withInitializationLabels(Set<String> initializationLabels) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), initializationLabels, getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withInitializationRelationshipTypes(Set<String> initializationRelationshipTypes) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), initializationRelationshipTypes, isBackgroundInitialization(), getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withBackgroundInitialization(boolean backgroundInitialization) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), backgroundInitialization, getInitializationRate(), getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withInitializationRate(int initializationRate) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), initializationRate, getReconciliationRate());
+    }
+
+    public ExpirationConfiguration withReconciliationRate(int reconciliationRate) {
+        return new ExpirationConfiguration(getInclusionPolicies(), initializeUntil(), getInstanceRolePolicy(), getNodeExpirationIndex(), getRelationshipExpirationIndex(), getNodeExpirationProperty(), getRelationshipExpirationProperty(), getNodeTtlProperty(), getRelationshipTtlProperty(), getMaxNoExpirations(), getNodeExpirationStrategy(), getRelationshipExpirationStrategy(), getIndexerType(), getBudgetPolicy(), getTargetTickMillis(), getMinNoExpirations(), getMaxTickMillis(), getExpiryThreads(), isDeadlineScheduling(), isSkipLockedEntities(), isLockOrdering(), getInitializationThreads(), getInitializationBatchSize(), getInitializationLabels(), getInitializationRelationshipTypes(), isBackgroundInitialization(), getInitializationRate(), reconciliationRate);
     }
 
     public String getNodeExpirationIndex() {
@@ -232,6 +424,70 @@ public class ExpirationConfiguration extends BaseTxAndTimerDrivenModuleConfigura
         return maxNoExpirations;
     }
 
+    public IndexerType getIndexerType() {
+        return indexerType;
+    }
+
+    public BudgetPolicy getBudgetPolicy() {
+        return budgetPolicy;
+    }
+
+    public long getTargetTickMillis() {
+        return targetTickMillis;
+    }
+
+    public int getMinNoExpirations() {
+        return minNoExpirations;
+    }
+
+    public long getMaxTickMillis() {
+        return maxTickMillis;
+    }
+
+    public int getExpiryThreads() {
+        return expiryThreads;
+    }
+
+    public boolean isDeadlineScheduling() {
+        return deadlineScheduling;
+    }
+
+    public boolean isSkipLockedEntities() {
+        return skipLockedEntities;
+    }
+
+    public boolean isLockOrdering() {
+        return lockOrdering;
+    }
+
+    public int getInitializationThreads() {
+        return initializationThreads;
+    }
+
+    public int getInitializationBatchSize() {
+        return initializationBatchSize;
+    }
+
+    public Set<String> getInitializationLabels() {
+        return initializationLabels;
+    }
+
+    public Set<String> getInitializationRelationshipTypes() {
+        return initializationRelationshipTypes;
+    }
+
+    public boolean isBackgroundInitialization() {
+        return backgroundInitialization;
+    }
+
+    public int getInitializationRate() {
+        return initializationRate;
+    }
+
+    public int getReconciliationRate() {
+        return reconciliationRate;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -270,6 +526,54 @@ public class ExpirationConfiguration extends BaseTxAndTimerDrivenModuleConfigura
         if (maxNoExpirations != that.maxNoExpirations) {
             return false;
         }
+        if (indexerType != null ? !indexerType.equals(that.indexerType) : that.indexerType != null) {
+            return false;
+        }
+        if (budgetPolicy != null ? !budgetPolicy.equals(that.budgetPolicy) : that.budgetPolicy != null) {
+            return false;
+        }
+        if (targetTickMillis != that.targetTickMillis) {
+            return false;
+        }
+        if (minNoExpirations != that.minNoExpirations) {
+            return false;
+        }
+        if (maxTickMillis != that.maxTickMillis) {
+            return false;
+        }
+        if (expiryThreads != that.expiryThreads) {
+            return false;
+        }
+        if (deadlineScheduling != that.deadlineScheduling) {
+            return false;
+        }
+        if (skipLockedEntities != that.skipLockedEntities) {
+            return false;
+        }
+        if (lockOrdering != that.lockOrdering) {
+            return false;
+        }
+        if (initializationThreads != that.initializationThreads) {
+            return false;
+        }
+        if (initializationBatchSize != that.initializationBatchSize) {
+            return false;
+        }
+        if (initializationLabels != null ? !initializationLabels.equals(that.initializationLabels) : that.initializationLabels != null) {
+            return false;
+        }
+        if (initializationRelationshipTypes != null ? !initializationRelationshipTypes.equals(that.initializationRelationshipTypes) : that.initializationRelationshipTypes != null) {
+            return false;
+        }
+        if (backgroundInitialization != that.backgroundInitialization) {
+            return false;
+        }
+        if (initializationRate != that.initializationRate) {
+            return false;
+        }
+        if (reconciliationRate != that.reconciliationRate) {
+            return false;
+        }
         return !(relationshipExpirationStrategy != null ? !relationshipExpirationStrategy.equals(that.relationshipExpirationStrategy) : that.relationshipExpirationStrategy != null);
 
     }
@@ -286,6 +590,22 @@ public class ExpirationConfiguration extends BaseTxAndTimerDrivenModuleConfigura
         result = 31 * result + (nodeExpirationStrategy != null ? nodeExpirationStrategy.hashCode() : 0);
         result = 31 * result + (relationshipExpirationStrategy != null ? relationshipExpirationStrategy.hashCode() : 0);
         result = 31 * result + maxNoExpirations;
+        result = 31 * result + (indexerType != null ? indexerType.hashCode() : 0);
+        result = 31 * result + (budgetPolicy != null ? budgetPolicy.hashCode() : 0);
+        result = 31 * result + (int) (targetTickMillis ^ (targetTickMillis >>> 32));
+        result = 31 * result + minNoExpirations;
+        result = 31 * result + (int) (maxTickMillis ^ (maxTickMillis >>> 32));
+        result = 31 * result + expiryThreads;
+        result = 31 * result + (deadlineScheduling ? 1 : 0);
+        result = 31 * result + (skipLockedEntities ? 1 : 0);
+        result = 31 * result + (lockOrdering ? 1 : 0);
+        result = 31 * result + initializationThreads;
+        result = 31 * result + initializationBatchSize;
+        result = 31 * result + (initializationLabels != null ? initializationLabels.hashCode() : 0);
+        result = 31 * result + (initializationRelationshipTypes != null ? initializationRelationshipTypes.hashCode() : 0);
+        result = 31 * result + (backgroundInitialization ? 1 : 0);
+        result = 31 * result + initializationRate;
+        result = 31 * result + reconciliationRate;
         return result;
     }
 }
@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.neo4j.expire.config.ExpirationConfiguration;
+import org.neo4j.graphdb.Entity;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.logging.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.function.LongUnaryOperator;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Base class for {@link ExpirationIndexer} implementations, which knows how to work out the expiry date of an entity
+ * and keeps track of the earliest expiry date indexed. Lifecycle methods do nothing else by default; subclasses that
+ * override the transaction callbacks must call the super methods.
+ */
+public abstract class BaseExpirationIndexer implements ExpirationIndexer {
+
+    private static final Log LOG = LoggerFactory.getLogger(BaseExpirationIndexer.class);
+
+    protected final GraphDatabaseService database;
+    protected final ExpirationConfiguration configuration;
+
+    private final AtomicLong earliestNodeExpiry = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong earliestRelationshipExpiry = new AtomicLong(Long.MAX_VALUE);
+    private final ThreadLocal<long[]> earliestUncommittedExpiries = new ThreadLocal<>();
+
+    protected BaseExpirationIndexer(GraphDatabaseService database, ExpirationConfiguration configuration) {
+        this.database = database;
+        this.configuration = configuration;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBuiltOnStart() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isStoredOnEntities() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeCommit() {
+        if (earliestUncommittedExpiries.get() == null) {
+            earliestUncommittedExpiries.set(new long[]{Long.MAX_VALUE, Long.MAX_VALUE});
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterCommit() {
+        long[] earliest = earliestUncommittedExpiries.get();
+        earliestUncommittedExpiries.remove();
+
+        if (earliest != null) {
+            lower(earliestNodeExpiry, earliest[0]);
+            lower(earliestRelationshipExpiry, earliest[1]);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterRollback() {
+        earliestUncommittedExpiries.remove();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResourceIterator<Node> nodesExpiringBefore(long timestamp) {
+        return nodesExpiringBetween(0, timestamp, Integer.MAX_VALUE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResourceIterator<Relationship> relationshipsExpiringBefore(long timestamp) {
+        return relationshipsExpiringBetween(0, timestamp, Integer.MAX_VALUE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long pollEarliestIndexedNodeExpiry() {
+        return earliestNodeExpiry.getAndSet(Long.MAX_VALUE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long pollEarliestIndexedRelationshipExpiry() {
+        return earliestRelationshipExpiry.getAndSet(Long.MAX_VALUE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long peekEarliestIndexedNodeExpiry() {
+        return earliestNodeExpiry.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long peekEarliestIndexedRelationshipExpiry() {
+        return earliestRelationshipExpiry.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Walks the expiry dates one by one using {@link #earliestNodeExpiry(long)}, which must not return dates before
+     * <code>from</code>, and {@link #nodesExpiringAt(long)}.
+     */
+    @Override
+    public long walkNodeEntries(long from, int limit, ObjLongConsumer<Node> consumer) {
+        return walk(from, limit, this::earliestNodeExpiry, this::nodesExpiringAt, consumer);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Walks the expiry dates one by one using {@link #earliestRelationshipExpiry(long)}, which must not return dates
+     * before <code>from</code>, and {@link #relationshipsExpiringAt(long)}.
+     */
+    @Override
+    public long walkRelationshipEntries(long from, int limit, ObjLongConsumer<Relationship> consumer) {
+        return walk(from, limit, this::earliestRelationshipExpiry, this::relationshipsExpiringAt, consumer);
+    }
+
+    private static <T extends Entity> long walk(long from, int limit, LongUnaryOperator earliest, LongFunction<ResourceIterator<T>> entries, ObjLongConsumer<T> consumer) {
+        int walked = 0;
+
+        while (walked < limit && from < Long.MAX_VALUE) {
+            long expiryDate = earliest.applyAsLong(from);
+
+            if (expiryDate == Long.MAX_VALUE || expiryDate < from) {
+                return Long.MAX_VALUE;
+            }
+
+            try (ResourceIterator<T> found = entries.apply(expiryDate)) {
+                while (found != null && found.hasNext()) {
+                    consumer.accept(found.next(), expiryDate);
+                    walked++;
+                }
+            }
+
+            from = expiryDate + 1;
+        }
+
+        return from;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isNodeIndexed(Node node, long expiryDate) {
+        return contains(nodesExpiringAt(expiryDate), node.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRelationshipIndexed(Relationship relationship, long expiryDate) {
+        return contains(relationshipsExpiringAt(expiryDate), relationship.getId());
+    }
+
+    private static <T extends Entity> boolean contains(ResourceIterator<T> entities, long id) {
+        if (entities == null) {
+            return false;
+        }
+
+        try (ResourceIterator<T> iterator = entities) {
+            while (iterator.hasNext()) {
+                if (iterator.next().getId() == id) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Find the indexed nodes that expire at exactly a given point in time. By default, these are found by
+     * {@link #nodesExpiringBetween(long, long, int)}, so implementations that return nodes expiring before
+     * <code>from</code> from that method must override this one.
+     *
+     * @param expiryDate in ms since epoch.
+     * @return iterator of the nodes, <code>null</code> if node expiry isn't configured.
+     */
+    protected ResourceIterator<Node> nodesExpiringAt(long expiryDate) {
+        return nodesExpiringBetween(expiryDate, expiryDate, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Find the indexed relationships that expire at exactly a given point in time. By default, these are found by
+     * {@link #relationshipsExpiringBetween(long, long, int)}, so implementations that return relationships expiring
+     * before <code>from</code> from that method must override this one.
+     *
+     * @param expiryDate in ms since epoch.
+     * @return iterator of the relationships, <code>null</code> if relationship expiry isn't configured.
+     */
+    protected ResourceIterator<Relationship> relationshipsExpiringAt(long expiryDate) {
+        return relationshipsExpiringBetween(expiryDate, expiryDate, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Work out the expiry date of a node and remember it, so that it is reflected by
+     * {@link #pollEarliestIndexedNodeExpiry()} once the current transaction has committed.
+     *
+     * @param node to work out the expiry date for.
+     * @return expiry date, {@link ExpiryDates#NONE} if the node does not have a valid one.
+     */
+    protected long getExpirationDate(Node node) {
+        return indexed(0, earliestNodeExpiry, getExpirationDate(node, configuration.getNodeExpirationProperty(), configuration.getNodeTtlProperty()));
+    }
+
+    /**
+     * Work out the expiry date of a relationship and remember it, so that it is reflected by
+     * {@link #pollEarliestIndexedRelationshipExpiry()} once the current transaction has committed.
+     *
+     * @param relationship to work out the expiry date for.
+     * @return expiry date, {@link ExpiryDates#NONE} if the relationship does not have a valid one.
+     */
+    protected long getExpirationDate(Relationship relationship) {
+        return indexed(1, earliestRelationshipExpiry, getExpirationDate(relationship, configuration.getRelationshipExpirationProperty(), configuration.getRelationshipTtlProperty()));
+    }
+
+    /**
+     * Remember that a node has been indexed under a given expiry date (by other means than
+     * {@link #getExpirationDate(Node)}), so that it is reflected by {@link #pollEarliestIndexedNodeExpiry()} once the
+     * current transaction has committed.
+     *
+     * @param expiryDate the node has been indexed under.
+     */
+    protected void nodeIndexed(long expiryDate) {
+        indexed(0, earliestNodeExpiry, expiryDate);
+    }
+
+    /**
+     * Remember that a relationship has been indexed under a given expiry date (by other means than
+     * {@link #getExpirationDate(Relationship)}), so that it is reflected by
+     * {@link #pollEarliestIndexedRelationshipExpiry()} once the current transaction has committed.
+     *
+     * @param expiryDate the relationship has been indexed under.
+     */
+    protected void relationshipIndexed(long expiryDate) {
+        indexed(1, earliestRelationshipExpiry, expiryDate);
+    }
+
+    private long indexed(int type, AtomicLong earliest, long expiryDate) {
+        if (expiryDate == ExpiryDates.NONE) {
+            return ExpiryDates.NONE;
+        }
+
+        long[] uncommitted = earliestUncommittedExpiries.get();
+
+        if (uncommitted != null) {
+            uncommitted[type] = Math.min(uncommitted[type], expiryDate);
+        } else {
+            lower(earliest, expiryDate);
+        }
+
+        return expiryDate;
+    }
+
+    private static void lower(AtomicLong earliest, long expiryDate) {
+        long current;
+        do {
+            current = earliest.get();
+        } while (expiryDate < current && !earliest.compareAndSet(current, expiryDate));
+    }
+
+    private long getExpirationDate(Entity entity, String expirationProperty, String ttlProperty) {
+        Object expiryValue = expirationProperty != null ? entity.getProperty(expirationProperty, null) : null;
+        Object ttlValue = ttlProperty != null ? entity.getProperty(ttlProperty, null) : null;
+
+        long result = ExpiryDates.NONE;
+
+        if (expiryValue != null) {
+            result = ExpiryDates.expiryDate(expiryValue);
+
+            if (result == ExpiryDates.NONE) {
+                LOG.warn("%s expiration property is not a valid expiry date: %s", entity.getId(), expiryValue);
+            }
+        }
+
+        if (ttlValue != null) {
+            long newResult = ExpiryDates.expiryDateFromTtl(ttlValue, System.currentTimeMillis());
+
+            if (newResult == ExpiryDates.NONE) {
+                LOG.warn("%s ttl property is not a valid ttl: %s", entity.getId(), ttlValue);
+            } else if (result != ExpiryDates.NONE) {
+                LOG.warn("%s has both expiry date and a ttl.", entity.getId());
+
+                if (newResult > result) {
+                    LOG.warn("Using ttl as it is later.");
+                    result = newResult;
+                } else {
+                    LOG.warn("Using expiry date as it is later.");
+                }
+            } else {
+                result = newResult;
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import com.graphaware.neo4j.expire.config.ExpirationConfiguration;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.index.lucene.QueryContext;
+
+import java.util.NoSuchElementException;
+
+/**
+ * {@link LegacyExpirationIndexer} that also stores each entity under the key of the time bucket (one minute) its expiry
+ * date falls into.
+ * <p>
+ * Expired entities are found by walking the buckets oldest-first, starting at a watermark below which all buckets are
+ * known to be empty. Buckets that have fully elapsed are looked up by exact match; only the current, partially
+ * elapsed bucket is queried by a (bounded) numeric range. Buckets found empty at the bottom of the walk move the
+ * watermark up, so that they are never looked at again. Indexing an entity into a bucket below the watermark moves the
+ * watermark down once the transaction has committed.
+ */
+public class BucketedExpirationIndexer extends LegacyExpirationIndexer {
+
+    private static final String BUCKET = "_expireBucket";
+
+    static final long BUCKET_MILLIS = 60_000;
+
+    private final Watermark nodeWatermark = new Watermark();
+    private final Watermark relationshipWatermark = new Watermark();
+
+    private final ThreadLocal<long[]> lowestIndexedBuckets = new ThreadLocal<>();
+
+    public BucketedExpirationIndexer(GraphDatabaseService database, ExpirationConfiguration configuration) {
+        super(database, configuration);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Positions the watermarks at the earliest non-empty bucket that has already (partially) elapsed.
+     */
+    @Override
+    public void start() {
+        long currentBucket = bucketOf(System.currentTimeMillis());
+
+        try (Transaction tx = database.beginTx()) {
+            if (configuration.getNodeExpirationIndex() != null) {
+                nodeWatermark.reset(firstNonEmptyBucket(nodeIndex(), 0, currentBucket));
+            }
+            if (configuration.getRelationshipExpirationIndex() != null) {
+                relationshipWatermark.reset(firstNonEmptyBucket(relationshipIndex(), 0, currentBucket));
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResourceIterator<Node> nodesExpiringBetween(long from, long timestamp, int limit) {
+        if (configuration.getNodeExpirationIndex() == null) {
+            return null;
+        }
+
+        return new BucketIterator<>(nodeIndex(), nodeWatermark, from, timestamp, limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResourceIterator<Relationship> relationshipsExpiringBetween(long from, long timestamp, int limit) {
+        if (configuration.getRelationshipExpirationIndex() == null) {
+            return null;
+        }
+
+        return new BucketIterator<>(relationshipIndex(), relationshipWatermark, from, timestamp, limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeCommit() {
+        super.beforeCommit();
+
+        if (lowestIndexedBuckets.get() == null) {
+            lowestIndexedBuckets.set(new long[]{Long.MAX_VALUE, Long.MAX_VALUE});
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterCommit() {
+        super.afterCommit();
+
+        long[] lowest = lowestIndexedBuckets.get();
+        lowestIndexedBuckets.remove();
+
+        if (lowest != null) {
+            nodeWatermark.lower(lowest[0]);
+            relationshipWatermark.lower(lowest[1]);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterRollback() {
+        super.afterRollback();
+        lowestIndexedBuckets.remove();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Also adds the entity under the key of its bucket.
+     */
+    @Override
+    protected <T extends PropertyContainer> void add(Index<T> index, T entity, long expiryDate) {
+        super.add(index, entity, expiryDate);
+
+        long bucket = bucketOf(expiryDate);
+        index.add(entity, BUCKET, bucket);
+
+        if (entity instanceof Node) {
+            indexed(0, nodeWatermark, bucket);
+        } else {
+            indexed(1, relationshipWatermark, bucket);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected <T extends PropertyContainer> void remove(Index<T> index, T entity) {
+        super.remove(index, entity);
+        index.remove(entity, BUCKET);
+    }
+
+    private void indexed(int type, Watermark watermark, long bucket) {
+        long[] lowest = lowestIndexedBuckets.get();
+
+        if (lowest != null) {
+            lowest[type] = Math.min(lowest[type], bucket);
+        } else {
+            watermark.lower(bucket);
+        }
+    }
+
+    /**
+     * Find the first bucket in the given range that contains at least one entry, using a binary search over bounded
+     * range queries.
+     *
+     * @param index to search.
+     * @param from  first bucket to search, inclusive.
+     * @param to    last bucket to search, exclusive.
+     * @return first non-empty bucket, <code>to</code> if there is none.
+     */
+    private static long firstNonEmptyBucket(Index<? extends PropertyContainer> index, long from, long to) {
+        if (from >= to || !containsEntries(index, from, to)) {
+            return to;
+        }
+
+        while (to - from > 1) {
+            long middle = (from + to) >>> 1;
+
+            if (containsEntries(index, from, middle)) {
+                to = middle;
+            } else {
+                from = middle;
+            }
+        }
+
+        return from;
+    }
+
+    private static boolean containsEntries(Index<? extends PropertyContainer> index, long fromBucket, long toBucket) {
+        try (IndexHits<? extends PropertyContainer> hits = index.query(QueryContext.numericRange(EXPIRE, fromBucket * BUCKET_MILLIS, toBucket * BUCKET_MILLIS - 1))) {
+            return hits.hasNext();
+        }
+    }
+
+    static long bucketOf(long expiryDate) {
+        return Math.floorDiv(expiryDate, BUCKET_MILLIS);
+    }
+
+    /**
+     * The lowest bucket that may contain entries. All buckets below it are known to be empty.
+     */
+    private static final class Watermark {
+
+        private long bucket = Long.MAX_VALUE;
+        private long lowestIndexedSinceWalk = Long.MAX_VALUE;
+
+        synchronized void reset(long bucket) {
+            this.bucket = bucket;
+            this.lowestIndexedSinceWalk = Long.MAX_VALUE;
+        }
+
+        synchronized void lower(long bucket) {
+            this.bucket = Math.min(this.bucket, bucket);
+            this.lowestIndexedSinceWalk = Math.min(this.lowestIndexedSinceWalk, bucket);
+        }
+
+        synchronized long startWalk() {
+            lowestIndexedSinceWalk = Long.MAX_VALUE;
+            return bucket;
+        }
+
+        synchronized void raise(long bucket) {
+            this.bucket = Math.max(this.bucket, Math.min(bucket, lowestIndexedSinceWalk));
+        }
+    }
+
+    /**
+     * Iterator over (at most a given number of) the entities in all buckets from the watermark (or a later bucket) up
+     * to a timestamp. Only a walk that starts at the watermark can raise it.
+     */
+    private final class BucketIterator<T extends PropertyContainer> implements ResourceIterator<T> {
+
+        private final Index<T> index;
+        private final Watermark watermark;
+        private final long timestamp;
+        private final long lastBucket;
+
+        private long bucket;
+        private int remaining;
+        private boolean emptySoFar;
+        private IndexHits<T> hits;
+
+        BucketIterator(Index<T> index, Watermark watermark, long from, long timestamp, int limit) {
+            this.index = index;
+            this.watermark = watermark;
+            this.timestamp = timestamp;
+            this.lastBucket = bucketOf(timestamp);
+            this.remaining = limit;
+
+            long lowest = watermark.startWalk();
+            this.bucket = Math.max(lowest, bucketOf(from));
+            this.emptySoFar = bucket == lowest;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext() {
+            if (remaining <= 0) {
+                return false;
+            }
+
+            while (hits == null || !hits.hasNext()) {
+                if (hits != null) {
+                    hits.close();
+                    hits = null;
+                    bucket++;
+                }
+
+                if (bucket > lastBucket) {
+                    return false;
+                }
+
+                if (bucket == lastBucket) {
+                    hits = index.query(QueryContext.numericRange(EXPIRE, bucket * BUCKET_MILLIS, timestamp));
+                } else {
+                    hits = index.get(BUCKET, bucket);
+                }
+
+                if (emptySoFar && bucket < lastBucket) {
+                    if (hits.hasNext()) {
+                        emptySoFar = false;
+                    } else {
+                        long next = firstNonEmptyBucket(index, bucket + 1, lastBucket);
+                        watermark.raise(next);
+                        bucket = next - 1;
+                    }
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            remaining--;
+            return hits.next();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            if (hits != null) {
+                hits.close();
+                hits = null;
+            }
+            bucket = lastBucket + 1;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import org.neo4j.graphdb.Entity;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.ResourceIterator;
+
+import java.util.NoSuchElementException;
+import java.util.function.LongFunction;
+
+/**
+ * A {@link ResourceIterator} that loads entities by their IDs, silently skipping the ones that no longer exist.
+ *
+ * @param <T> type of the entity.
+ */
+class EntityIdIterator<T extends Entity> implements ResourceIterator<T> {
+
+    private final long[] ids;
+    private final LongFunction<T> loader;
+
+    private int position;
+    private T next;
+
+    EntityIdIterator(long[] ids, LongFunction<T> loader) {
+        this.ids = ids;
+        this.loader = loader;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        while (next == null && position < ids.length) {
+            try {
+                next = loader.apply(ids[position++]);
+            } catch (NotFoundException e) {
+                //deleted in the meantime, skip
+            }
+        }
+
+        return next != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        T result = next;
+        next = null;
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        position = ids.length;
+        next = null;
+    }
+}
@@ -18,7 +18,9 @@ package com.graphaware.neo4j.expire.indexer;
 
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
-import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.graphdb.ResourceIterator;
+
+import java.util.function.ObjLongConsumer;
 
 /**
  * A component responsible for handling the indexing of expiry dates on nodes and relationships.
@@ -41,21 +43,158 @@ public interface ExpirationIndexer {
      */
     void indexRelationship(Relationship relationship);
 
+    /**
+     * Index a given node (that may already be in the expiration index) under a given expiry date, regardless of its
+     * expiration/ttl property. Used for looking at a node left in place by the expiration strategy again later.
+     *
+     * @param node       to reschedule.
+     * @param expiryDate to index the node under, in ms since epoch.
+     */
+    void rescheduleNode(Node node, long expiryDate);
+
+    /**
+     * Index a given relationship (that may already be in the expiration index) under a given expiry date, regardless
+     * of its expiration/ttl property. Used for looking at a relationship left in place by the expiration strategy
+     * again later.
+     *
+     * @param relationship to reschedule.
+     * @param expiryDate   to index the relationship under, in ms since epoch.
+     */
+    void rescheduleRelationship(Relationship relationship, long expiryDate);
+
     /**
      * Finds all indexed nodes that expire before a particular time.
      *
      * @param timestamp The timestamp to query for, given as milliseconds since epoch.
-     * @return Iterable of all nodes expiring before timestamp.
+     * @return Iterator of all nodes expiring before timestamp, <code>null</code> if node expiry isn't configured.
      */
-    IndexHits<Node> nodesExpiringBefore(long timestamp);
+    ResourceIterator<Node> nodesExpiringBefore(long timestamp);
 
     /**
      * Finds all indexed relationships that expire before a particular time.
      *
      * @param timestamp The timestamp to query for, given as milliseconds since epoch.
-     * @return Iterable of all relationships expiring before timestamp.
+     * @return Iterator of all relationships expiring before timestamp, <code>null</code> if relationship expiry isn't configured.
+     */
+    ResourceIterator<Relationship> relationshipsExpiringBefore(long timestamp);
+
+    /**
+     * Finds indexed nodes that expire between two points in time, in a stable order, which is ascending by expiry
+     * date as far as the implementation allows. Nodes expiring before <code>from</code> may also be returned.
+     *
+     * @param from      The earliest expiry date to query for, given as milliseconds since epoch.
+     * @param timestamp The latest expiry date to query for, given as milliseconds since epoch.
+     * @param limit     The maximum number of nodes to return, {@link Integer#MAX_VALUE} for no limit.
+     * @return Iterator of the first <code>limit</code> nodes expiring between the two points in time, <code>null</code> if node expiry isn't configured.
+     */
+    ResourceIterator<Node> nodesExpiringBetween(long from, long timestamp, int limit);
+
+    /**
+     * Finds indexed relationships that expire between two points in time, in a stable order, which is ascending by
+     * expiry date as far as the implementation allows. Relationships expiring before <code>from</code> may also be returned.
+     *
+     * @param from      The earliest expiry date to query for, given as milliseconds since epoch.
+     * @param timestamp The latest expiry date to query for, given as milliseconds since epoch.
+     * @param limit     The maximum number of relationships to return, {@link Integer#MAX_VALUE} for no limit.
+     * @return Iterator of the first <code>limit</code> relationships expiring between the two points in time, <code>null</code> if relationship expiry isn't configured.
+     */
+    ResourceIterator<Relationship> relationshipsExpiringBetween(long from, long timestamp, int limit);
+
+    /**
+     * Get the earliest expiry date of all nodes indexed (in committed transactions) since the last call of this method.
+     *
+     * @return earliest expiry date in ms since epoch, {@link Long#MAX_VALUE} if no nodes have been indexed.
      */
-    IndexHits<Relationship> relationshipsExpiringBefore(long timestamp);
+    long pollEarliestIndexedNodeExpiry();
+
+    /**
+     * Get the earliest expiry date of all relationships indexed (in committed transactions) since the last call of
+     * this method.
+     *
+     * @return earliest expiry date in ms since epoch, {@link Long#MAX_VALUE} if no relationships have been indexed.
+     */
+    long pollEarliestIndexedRelationshipExpiry();
+
+    /**
+     * Get the earliest expiry date of all nodes indexed (in committed transactions) since the last call of
+     * {@link #pollEarliestIndexedNodeExpiry()}, without resetting it.
+     *
+     * @return earliest expiry date in ms since epoch, {@link Long#MAX_VALUE} if no nodes have been indexed.
+     */
+    long peekEarliestIndexedNodeExpiry();
+
+    /**
+     * Get the earliest expiry date of all relationships indexed (in committed transactions) since the last call of
+     * {@link #pollEarliestIndexedRelationshipExpiry()}, without resetting it.
+     *
+     * @return earliest expiry date in ms since epoch, {@link Long#MAX_VALUE} if no relationships have been indexed.
+     */
+    long peekEarliestIndexedRelationshipExpiry();
+
+    /**
+     * Find the earliest expiry date of the indexed nodes that expire at or after a point in time. Implementations
+     * that return nodes expiring before <code>from</code> from {@link #nodesExpiringBetween(long, long, int)} take
+     * these into account, too.
+     *
+     * @param from The earliest expiry date to look for, given as milliseconds since epoch.
+     * @return earliest expiry date in ms since epoch, {@link Long#MAX_VALUE} if there is none or node expiry isn't configured.
+     */
+    long earliestNodeExpiry(long from);
+
+    /**
+     * Find the earliest expiry date of the indexed relationships that expire at or after a point in time.
+     * Implementations that return relationships expiring before <code>from</code> from
+     * {@link #relationshipsExpiringBetween(long, long, int)} take these into account, too.
+     *
+     * @param from The earliest expiry date to look for, given as milliseconds since epoch.
+     * @return earliest expiry date in ms since epoch, {@link Long#MAX_VALUE} if there is none or relationship expiry isn't configured.
+     */
+    long earliestRelationshipExpiry(long from);
+
+    /**
+     * Look at the entries of the node expiration index with expiry dates from a given one on, in ascending order of
+     * expiry date, until at least a given number of entries have been looked at or there are no more. All entries
+     * with the last expiry date looked at are looked at, so that the walk can be continued from the returned date.
+     *
+     * @param from     The earliest expiry date to look at, given as milliseconds since epoch.
+     * @param limit    The number of entries after which to stop.
+     * @param consumer to give each entry to: the node (which may no longer exist) and the expiry date it is indexed under.
+     * @return expiry date to continue the walk from, {@link Long#MAX_VALUE} if there are no more entries, node expiry
+     * isn't configured, or the index cannot be walked.
+     */
+    long walkNodeEntries(long from, int limit, ObjLongConsumer<Node> consumer);
+
+    /**
+     * Look at the entries of the relationship expiration index with expiry dates from a given one on, in ascending
+     * order of expiry date, until at least a given number of entries have been looked at or there are no more. All
+     * entries with the last expiry date looked at are looked at, so that the walk can be continued from the returned
+     * date.
+     *
+     * @param from     The earliest expiry date to look at, given as milliseconds since epoch.
+     * @param limit    The number of entries after which to stop.
+     * @param consumer to give each entry to: the relationship (which may no longer exist) and the expiry date it is indexed under.
+     * @return expiry date to continue the walk from, {@link Long#MAX_VALUE} if there are no more entries, relationship
+     * expiry isn't configured, or the index cannot be walked.
+     */
+    long walkRelationshipEntries(long from, int limit, ObjLongConsumer<Relationship> consumer);
+
+    /**
+     * Check whether a node is in the expiration index under a given expiry date.
+     *
+     * @param node       to check.
+     * @param expiryDate to check, in ms since epoch.
+     * @return <code>true</code> iff the node is indexed under the expiry date.
+     */
+    boolean isNodeIndexed(Node node, long expiryDate);
+
+    /**
+     * Check whether a relationship is in the expiration index under a given expiry date.
+     *
+     * @param relationship to check.
+     * @param expiryDate   to check, in ms since epoch.
+     * @return <code>true</code> iff the relationship is indexed under the expiry date.
+     */
+    boolean isRelationshipIndexed(Relationship relationship, long expiryDate);
 
     /**
      * Removes node from expiration index. If node is not in the index, it does nothing.
@@ -70,4 +209,54 @@ public interface ExpirationIndexer {
      * @param relationship Relationship to remove from index.
      */
     void removeRelationship(Relationship relationship);
+
+    /**
+     * Start the indexer. Called when the module starts.
+     */
+    void start();
+
+    /**
+     * Find out whether the indexer builds its index from the graph (or restores it from a snapshot taken on shutdown)
+     * every time it {@link #start()}s, in which case the module does not need to look at existing nodes and
+     * relationships when it is initialized.
+     *
+     * @return <code>true</code> iff the index is built on start.
+     */
+    boolean isBuiltOnStart();
+
+    /**
+     * Find out whether the indexer keeps its index entries on the indexed entities themselves, in which case indexing
+     * or rescheduling an entity needs the same locks as changing its properties.
+     *
+     * @return <code>true</code> iff index entries are stored on the entities.
+     */
+    boolean isStoredOnEntities();
+
+    /**
+     * Shut the indexer down. Called when the module is shut down.
+     */
+    void shutdown();
+
+    /**
+     * Called when the module starts processing a transaction. Until {@link #afterCommit()} or {@link #afterRollback()}
+     * is called on the same thread, all index/remove calls made on that thread are part of that transaction. Calling
+     * it again on the same thread before then does not discard the changes made so far.
+     */
+    void beforeCommit();
+
+    /**
+     * Called when the module has finished processing the transaction announced by {@link #beforeCommit()}, before it
+     * commits. Index changes buffered since {@link #beforeCommit()} must be applied to the transaction now.
+     */
+    void flush();
+
+    /**
+     * Called after the transaction announced by {@link #beforeCommit()} has been committed.
+     */
+    void afterCommit();
+
+    /**
+     * Called after the transaction announced by {@link #beforeCommit()} has been rolled back.
+     */
+    void afterRollback();
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.chrono.ChronoZonedDateTime;
+import java.time.temporal.TemporalAmount;
+
+/**
+ * Utilities for working with expiry dates and TTLs stored as property values.
+ * <p>
+ * Values are decoded without boxing or string conversion: integral numbers are taken as they are, strings are parsed
+ * as (decimal) numbers, and Neo4j temporal values are converted directly. Dates and date-times without a time zone are
+ * taken to be in UTC. Floating-point numbers are not valid expiry dates or TTLs.
+ */
+public final class ExpiryDates {
+
+    /**
+     * Returned when a value is not a valid expiry date or TTL.
+     */
+    public static final long NONE = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private ExpiryDates() {
+    }
+
+    /**
+     * Convert the value of an expiration property to an expiry date.
+     *
+     * @param value property value, can be <code>null</code>. Numbers and numeric strings are milliseconds since epoch;
+     *              date-times and dates (Neo4j <code>DateTime</code>, <code>LocalDateTime</code>, <code>Date</code>)
+     *              are supported natively.
+     * @return expiry date in milliseconds since epoch, {@link #NONE} if the value is <code>null</code> or invalid.
+     */
+    public static long expiryDate(Object value) {
+        if (value instanceof ChronoZonedDateTime) {
+            ChronoZonedDateTime<?> dateTime = (ChronoZonedDateTime<?>) value;
+            return epochMillis(dateTime.toEpochSecond(), dateTime.toLocalTime().getNano());
+        }
+
+        if (value instanceof OffsetDateTime) {
+            OffsetDateTime dateTime = (OffsetDateTime) value;
+            return epochMillis(dateTime.toEpochSecond(), dateTime.getNano());
+        }
+
+        if (value instanceof LocalDateTime) {
+            LocalDateTime dateTime = (LocalDateTime) value;
+            return epochMillis(dateTime.toEpochSecond(ZoneOffset.UTC), dateTime.getNano());
+        }
+
+        if (value instanceof LocalDate) {
+            return ((LocalDate) value).toEpochDay() * MILLIS_PER_DAY;
+        }
+
+        if (value instanceof Instant) {
+            Instant instant = (Instant) value;
+            return epochMillis(instant.getEpochSecond(), instant.getNano());
+        }
+
+        return millis(value);
+    }
+
+    /**
+     * Convert the value of a TTL property to an expiry date.
+     *
+     * @param value property value, can be <code>null</code>. Numbers and numeric strings are milliseconds; durations
+     *              (Neo4j <code>Duration</code>) are supported natively, including ones with months or days, which
+     *              are added to <code>now</code> in UTC.
+     * @param now   time the TTL is relative to, in milliseconds since epoch.
+     * @return expiry date in milliseconds since epoch, {@link #NONE} if the value is <code>null</code> or invalid.
+     */
+    public static long expiryDateFromTtl(Object value, long now) {
+        if (value instanceof Duration) {
+            try {
+                return now + ((Duration) value).toMillis();
+            } catch (ArithmeticException e) {
+                return NONE;
+            }
+        }
+
+        if (value instanceof TemporalAmount) {
+            try {
+                OffsetDateTime expiry = Instant.ofEpochMilli(now).atOffset(ZoneOffset.UTC).plus((TemporalAmount) value);
+                return epochMillis(expiry.toEpochSecond(), expiry.getNano());
+            } catch (DateTimeException | ArithmeticException e) {
+                return NONE;
+            }
+        }
+
+        long ttl = millis(value);
+
+        if (ttl == NONE) {
+            return NONE;
+        }
+
+        return now + ttl;
+    }
+
+    private static long millis(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+
+        if (value instanceof String) {
+            try {
+                return Long.parseLong((String) value);
+            } catch (NumberFormatException e) {
+                return NONE;
+            }
+        }
+
+        return NONE;
+    }
+
+    private static long epochMillis(long epochSecond, int nano) {
+        return epochSecond * 1000 + nano / 1_000_000;
+    }
+}
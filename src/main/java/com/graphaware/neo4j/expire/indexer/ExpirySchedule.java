@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+/**
+ * A schedule of entity IDs and their expiry dates. Each entity is scheduled at most once. Implementations need not be
+ * thread-safe.
+ */
+public interface ExpirySchedule {
+
+    /**
+     * Schedule an entity for expiry, replacing any previously scheduled expiry date of the same entity.
+     *
+     * @param id     of the entity.
+     * @param expiry expiry date in ms since epoch.
+     */
+    void schedule(long id, long expiry);
+
+    /**
+     * Cancel the scheduled expiry of an entity. Does nothing if the entity is not scheduled.
+     *
+     * @param id of the entity.
+     */
+    void cancel(long id);
+
+    /**
+     * @param id of the entity.
+     * @return expiry date of the entity in ms since epoch, {@link LongLongHashMap#NO_VALUE} if not scheduled.
+     */
+    long expiryOf(long id);
+
+    /**
+     * @return number of scheduled entities.
+     */
+    int size();
+
+    /**
+     * Remove all scheduled entities.
+     */
+    void clear();
+
+    /**
+     * Get IDs of entities whose expiry date is not later than the given timestamp, each ID at most once. The entities
+     * remain scheduled until they are {@link #cancel(long)}ed.
+     *
+     * @param timestamp in ms since epoch.
+     * @param limit     maximum number of IDs to return.
+     * @return IDs of (at most <code>limit</code>) expired entities.
+     */
+    long[] due(long timestamp, int limit);
+
+    /**
+     * @return the earliest expiry date of all scheduled entities in ms since epoch, {@link Long#MAX_VALUE} if there
+     * are none.
+     */
+    long earliest();
+
+    /**
+     * Get IDs of all entities whose expiry date is not later than the given timestamp, see {@link #due(long, int)}.
+     *
+     * @param timestamp in ms since epoch.
+     * @return IDs of expired entities.
+     */
+    default long[] due(long timestamp) {
+        return due(timestamp, Integer.MAX_VALUE);
+    }
+}
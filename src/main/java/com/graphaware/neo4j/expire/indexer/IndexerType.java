@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import com.graphaware.neo4j.expire.config.ExpirationConfiguration;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+/**
+ * Types of {@link ExpirationIndexer} that can be configured.
+ */
+public enum IndexerType {
+
+    /**
+     * {@link LegacyExpirationIndexer}.
+     */
+    LEGACY {
+        @Override
+        public ExpirationIndexer createIndexer(GraphDatabaseService database, ExpirationConfiguration configuration) {
+            return new LegacyExpirationIndexer(database, configuration);
+        }
+    },
+
+    /**
+     * {@link TimingWheelExpirationIndexer}.
+     */
+    TIMING_WHEEL {
+        @Override
+        public ExpirationIndexer createIndexer(GraphDatabaseService database, ExpirationConfiguration configuration) {
+            return new TimingWheelExpirationIndexer(database, configuration);
+        }
+    },
+
+    /**
+     * {@link OffHeapExpirationIndexer}.
+     */
+    OFF_HEAP {
+        @Override
+        public ExpirationIndexer createIndexer(GraphDatabaseService database, ExpirationConfiguration configuration) {
+            return new OffHeapExpirationIndexer(database, configuration);
+        }
+    },
+
+    /**
+     * {@link SchemaExpirationIndexer}.
+     */
+    SCHEMA {
+        @Override
+        public ExpirationIndexer createIndexer(GraphDatabaseService database, ExpirationConfiguration configuration) {
+            return new SchemaExpirationIndexer(database, configuration);
+        }
+    },
+
+    /**
+     * {@link BucketedExpirationIndexer}.
+     */
+    BUCKETED {
+        @Override
+        public ExpirationIndexer createIndexer(GraphDatabaseService database, ExpirationConfiguration configuration) {
+            return new BucketedExpirationIndexer(database, configuration);
+        }
+    };
+
+    /**
+     * Create an indexer of this type.
+     *
+     * @param database      on which the indexer operates.
+     * @param configuration of the module.
+     * @return indexer.
+     */
+    public abstract ExpirationIndexer createIndexer(GraphDatabaseService database, ExpirationConfiguration configuration);
+}
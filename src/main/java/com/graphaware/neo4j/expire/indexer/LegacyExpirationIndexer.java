@@ -16,31 +16,32 @@
 
 package com.graphaware.neo4j.expire.indexer;
 
-import com.graphaware.common.log.LoggerFactory;
 import com.graphaware.neo4j.expire.config.ExpirationConfiguration;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.index.Index;
 import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.index.lucene.QueryContext;
 import org.neo4j.index.lucene.ValueContext;
-import org.neo4j.logging.Log;
 
-import static com.graphaware.common.util.EntityUtils.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * {@link ExpirationIndexer} that uses the legacy index of Neo4j.
+ * <p>
+ * Index changes made as part of a transaction processed by the module are buffered and applied in one go when the
+ * indexer is {@link #flush()}ed, looking up each index once and without nested transactions.
  */
-public class LegacyExpirationIndexer implements ExpirationIndexer {
-    private static final Log LOG = LoggerFactory.getLogger(LegacyExpirationIndexer.class);
-    private static final String EXPIRE = "_expire";
+public class LegacyExpirationIndexer extends BaseExpirationIndexer {
+    protected static final String EXPIRE = "_expire";
 
+    private static final long REMOVE = Long.MIN_VALUE;
 
-    private GraphDatabaseService database;
-    private ExpirationConfiguration configuration;
+    private final ThreadLocal<PendingOperations> pendingOperations = new ThreadLocal<>();
 
     public LegacyExpirationIndexer(GraphDatabaseService database, ExpirationConfiguration configuration) {
-        this.database = database;
-        this.configuration = configuration;
+        super(database, configuration);
     }
 
     /**
@@ -48,10 +49,10 @@ public class LegacyExpirationIndexer implements ExpirationIndexer {
      */
     @Override
     public void indexNode(Node node) {
-        Long expiryDate = getExpirationDate(node);
+        long expiryDate = getExpirationDate(node);
 
-        if (expiryDate != null) {
-            database.index().forNodes(configuration.getNodeExpirationIndex()).add(node, EXPIRE, new ValueContext(expiryDate).indexNumeric());
+        if (expiryDate != ExpiryDates.NONE) {
+            index(node, expiryDate);
         }
     }
 
@@ -60,10 +61,50 @@ public class LegacyExpirationIndexer implements ExpirationIndexer {
      */
     @Override
     public void indexRelationship(Relationship relationship) {
-        Long expiryDate = getExpirationDate(relationship);
+        long expiryDate = getExpirationDate(relationship);
 
-        if (expiryDate != null) {
-            database.index().forRelationships(configuration.getRelationshipExpirationIndex()).add(relationship, EXPIRE, new ValueContext(expiryDate).indexNumeric());
+        if (expiryDate != ExpiryDates.NONE) {
+            index(relationship, expiryDate);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rescheduleNode(Node node, long expiryDate) {
+        nodeIndexed(expiryDate);
+        removeNode(node);
+        index(node, expiryDate);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rescheduleRelationship(Relationship relationship, long expiryDate) {
+        relationshipIndexed(expiryDate);
+        removeRelationship(relationship);
+        index(relationship, expiryDate);
+    }
+
+    private void index(Node node, long expiryDate) {
+        PendingOperations operations = pendingOperations.get();
+
+        if (operations != null) {
+            operations.nodes.add(node, expiryDate);
+        } else {
+            add(nodeIndex(), node, expiryDate);
+        }
+    }
+
+    private void index(Relationship relationship, long expiryDate) {
+        PendingOperations operations = pendingOperations.get();
+
+        if (operations != null) {
+            operations.relationships.add(relationship, expiryDate);
+        } else {
+            add(relationshipIndex(), relationship, expiryDate);
         }
     }
 
@@ -72,6 +113,18 @@ public class LegacyExpirationIndexer implements ExpirationIndexer {
      */
     @Override
     public IndexHits<Node> nodesExpiringBefore(long timestamp) {
+        return queryNodes(0L, timestamp, Integer.MAX_VALUE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResourceIterator<Node> nodesExpiringBetween(long from, long timestamp, int limit) {
+        return queryNodes(from, timestamp, limit);
+    }
+
+    private IndexHits<Node> queryNodes(long from, long timestamp, int limit) {
         if (configuration.getNodeExpirationIndex() == null) {
             return null;
         }
@@ -79,8 +132,8 @@ public class LegacyExpirationIndexer implements ExpirationIndexer {
         IndexHits<Node> result;
 
         try (Transaction tx = database.beginTx()) {
-            Index<Node> index = database.index().forNodes(configuration.getNodeExpirationIndex());
-            result = index.query(QueryContext.numericRange(EXPIRE, 0L, timestamp));
+            Index<Node> index = nodeIndex();
+            result = index.query(expiringBetween(from, timestamp, limit));
             tx.success();
         }
 
@@ -92,6 +145,18 @@ public class LegacyExpirationIndexer implements ExpirationIndexer {
      */
     @Override
     public IndexHits<Relationship> relationshipsExpiringBefore(long timestamp) {
+        return queryRelationships(0L, timestamp, Integer.MAX_VALUE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResourceIterator<Relationship> relationshipsExpiringBetween(long from, long timestamp, int limit) {
+        return queryRelationships(from, timestamp, limit);
+    }
+
+    private IndexHits<Relationship> queryRelationships(long from, long timestamp, int limit) {
         if (configuration.getRelationshipExpirationIndex() == null) {
             return null;
         }
@@ -99,8 +164,8 @@ public class LegacyExpirationIndexer implements ExpirationIndexer {
         IndexHits<Relationship> result;
 
         try (Transaction tx = database.beginTx()) {
-            Index<Relationship> index = database.index().forRelationships(configuration.getRelationshipExpirationIndex());
-            result = index.query(QueryContext.numericRange(EXPIRE, 0L, timestamp));
+            Index<Relationship> index = relationshipIndex();
+            result = index.query(expiringBetween(from, timestamp, limit));
             tx.success();
         }
 
@@ -111,79 +176,275 @@ public class LegacyExpirationIndexer implements ExpirationIndexer {
      * {@inheritDoc}
      */
     @Override
-    public void removeNode(Node node) {
+    public long earliestNodeExpiry(long from) {
+        if (configuration.getNodeExpirationIndex() == null) {
+            return Long.MAX_VALUE;
+        }
+
         try (Transaction tx = database.beginTx()) {
-            Index<Node> index = database.index().forNodes(configuration.getNodeExpirationIndex());
+            long result = earliestExpiry(nodeIndex(), from);
+            tx.success();
+            return result;
+        }
+    }
 
-            index.remove(node, EXPIRE);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long earliestRelationshipExpiry(long from) {
+        if (configuration.getRelationshipExpirationIndex() == null) {
+            return Long.MAX_VALUE;
+        }
 
+        try (Transaction tx = database.beginTx()) {
+            long result = earliestExpiry(relationshipIndex(), from);
             tx.success();
+            return result;
         }
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Queries the index directly, also in subclasses that find expired nodes by other means.
      */
     @Override
-    public void removeRelationship(Relationship relationship) {
-        try (Transaction tx = database.beginTx()) {
-            Index<Relationship> index = database.index().forRelationships(configuration.getRelationshipExpirationIndex());
+    protected ResourceIterator<Node> nodesExpiringAt(long expiryDate) {
+        return queryNodes(expiryDate, expiryDate, Integer.MAX_VALUE);
+    }
 
-            index.remove(relationship, EXPIRE);
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Queries the index directly, also in subclasses that find expired relationships by other means.
+     */
+    @Override
+    protected ResourceIterator<Relationship> relationshipsExpiringAt(long expiryDate) {
+        return queryRelationships(expiryDate, expiryDate, Integer.MAX_VALUE);
+    }
 
-            tx.success();
+    /**
+     * Find the earliest expiry date in an index that is not before a given time. The index does not give access to the
+     * indexed values, so the range containing it is first found by bounded range queries over ranges that double in
+     * size as they move away from <code>from</code>, and then narrowed down by a binary search.
+     *
+     * @param index to search.
+     * @param from  earliest expiry date to look for.
+     * @return earliest expiry date, {@link Long#MAX_VALUE} if there is none.
+     */
+    private static long earliestExpiry(Index<? extends PropertyContainer> index, long from) {
+        if (!containsEntries(index, from, Long.MAX_VALUE)) {
+            return Long.MAX_VALUE;
+        }
+
+        long to = from;
+        long step = 1;
+
+        while (!containsEntries(index, from, to)) {
+            if (to == Long.MAX_VALUE) {
+                //removed in the meantime
+                return Long.MAX_VALUE;
+            }
+
+            from = to + 1;
+            to = from + Math.min(step, Long.MAX_VALUE - from);
+            step *= 2;
+        }
+
+        while (from < to) {
+            long middle = from + (to - from) / 2;
+
+            if (containsEntries(index, from, middle)) {
+                to = middle;
+            } else {
+                from = middle + 1;
+            }
         }
+
+        return from;
     }
 
-    private Long getExpirationDate(Node node) {
-        return getExpirationDate(node, configuration.getNodeExpirationProperty(), configuration.getNodeTtlProperty());
+    private static boolean containsEntries(Index<? extends PropertyContainer> index, long from, long to) {
+        try (IndexHits<? extends PropertyContainer> hits = index.query(QueryContext.numericRange(EXPIRE, from, to))) {
+            return hits.hasNext();
+        }
     }
 
-    private Long getExpirationDate(Relationship relationship) {
-        return getExpirationDate(relationship, configuration.getRelationshipExpirationProperty(), configuration.getRelationshipTtlProperty());
+    /**
+     * Build a query for the entries expiring between two points in time, sorted by expiry date, earliest first, and
+     * limited to the top <code>limit</code> hits, so that Lucene does not have to collect all of them.
+     */
+    private static QueryContext expiringBetween(long from, long timestamp, int limit) {
+        QueryContext query = QueryContext.numericRange(EXPIRE, from, timestamp).sortNumeric(EXPIRE, false);
+
+        if (limit < Integer.MAX_VALUE) {
+            query = query.top(limit);
+        }
+
+        return query;
     }
 
-    private Long getExpirationDate(Entity entity, String expirationProperty, String ttlProperty) {
-        if (!hasExpirationProperty(entity, expirationProperty, ttlProperty)) {
-            return null;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeNode(Node node) {
+        PendingOperations operations = pendingOperations.get();
+
+        if (operations != null) {
+            operations.nodes.add(node, REMOVE);
+            return;
         }
 
-        Long result = null;
+        try (Transaction tx = database.beginTx()) {
+            remove(nodeIndex(), node);
+            tx.success();
+        }
+    }
 
-        if (entity.hasProperty(expirationProperty)) {
-            try {
-                result = Long.parseLong(entity.getProperty(expirationProperty).toString());
-            } catch (NumberFormatException e) {
-                LOG.warn("%s expiration property is non-numeric: %s", entity.getId(), entity.getProperty(expirationProperty));
-            }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeRelationship(Relationship relationship) {
+        PendingOperations operations = pendingOperations.get();
+
+        if (operations != null) {
+            operations.relationships.add(relationship, REMOVE);
+            return;
         }
 
-        if (entity.hasProperty(ttlProperty)) {
-            try {
-                long newResult = System.currentTimeMillis() + Long.parseLong(entity.getProperty(ttlProperty).toString());
+        try (Transaction tx = database.beginTx()) {
+            remove(relationshipIndex(), relationship);
+            tx.success();
+        }
+    }
 
-                if (result != null) {
-                    LOG.warn("%s has both expiry date and a ttl.", entity.getId());
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Starts buffering index changes.
+     */
+    @Override
+    public void beforeCommit() {
+        super.beforeCommit();
 
-                    if (newResult > result) {
-                        LOG.warn("Using ttl as it is later.");
-                        result = newResult;
-                    } else {
-                        LOG.warn("Using expiry date as it is later.");
-                    }
-                }
-                else {
-                    result = newResult;
-                }
-            } catch (NumberFormatException e) {
-                LOG.warn("%s ttl property is non-numeric: %s", entity.getId(), entity.getProperty(ttlProperty));
+        if (pendingOperations.get() == null) {
+            pendingOperations.set(new PendingOperations());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Applies the buffered index changes, in the order in which they were made.
+     */
+    @Override
+    public void flush() {
+        super.flush();
+
+        PendingOperations operations = pendingOperations.get();
+        pendingOperations.remove();
+
+        if (operations != null) {
+            if (operations.nodes.size() > 0) {
+                operations.nodes.applyTo(nodeIndex());
+            }
+            if (operations.relationships.size() > 0) {
+                operations.relationships.applyTo(relationshipIndex());
             }
         }
+    }
 
-        return result;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterCommit() {
+        super.afterCommit();
+        pendingOperations.remove();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterRollback() {
+        super.afterRollback();
+        pendingOperations.remove();
+    }
+
+    protected Index<Node> nodeIndex() {
+        return database.index().forNodes(configuration.getNodeExpirationIndex());
+    }
+
+    protected Index<Relationship> relationshipIndex() {
+        return database.index().forRelationships(configuration.getRelationshipExpirationIndex());
+    }
+
+    /**
+     * Add an entity to an expiration index. Must be called in a transaction.
+     *
+     * @param index      to add to.
+     * @param entity     to add.
+     * @param expiryDate of the entity.
+     * @param <T>        type of the entity.
+     */
+    protected <T extends PropertyContainer> void add(Index<T> index, T entity, long expiryDate) {
+        index.add(entity, EXPIRE, new ValueContext(expiryDate).indexNumeric());
     }
 
-    private boolean hasExpirationProperty(Entity entity, String expirationProperty, String ttlProperty) {
-        return (entity.hasProperty(expirationProperty) || entity.hasProperty(ttlProperty));
+    /**
+     * Remove an entity from an expiration index. Must be called in a transaction.
+     *
+     * @param index  to remove from.
+     * @param entity to remove.
+     * @param <T>    type of the entity.
+     */
+    protected <T extends PropertyContainer> void remove(Index<T> index, T entity) {
+        index.remove(entity, EXPIRE);
+    }
+
+    /**
+     * Index changes made by a single transaction.
+     */
+    private final class PendingOperations {
+
+        private final Operations<Node> nodes = new Operations<>();
+        private final Operations<Relationship> relationships = new Operations<>();
+    }
+
+    /**
+     * Index changes of one type of entity, in the order in which they were made. An expiry date of {@link #REMOVE}
+     * means removal.
+     */
+    private final class Operations<T extends PropertyContainer> {
+
+        private final List<T> entities = new ArrayList<>();
+        private long[] expiryDates = new long[16];
+
+        void add(T entity, long expiryDate) {
+            if (expiryDates.length == entities.size()) {
+                expiryDates = Arrays.copyOf(expiryDates, expiryDates.length * 2);
+            }
+
+            expiryDates[entities.size()] = expiryDate;
+            entities.add(entity);
+        }
+
+        int size() {
+            return entities.size();
+        }
+
+        void applyTo(Index<T> index) {
+            for (int i = 0; i < entities.size(); i++) {
+                if (expiryDates[i] == REMOVE) {
+                    remove(index, entities.get(i));
+                } else {
+                    LegacyExpirationIndexer.this.add(index, entities.get(i), expiryDates[i]);
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.neo4j.expire.config.ExpirationConfiguration;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * {@link ExpirationIndexer} that keeps the expiry schedule in an {@link OffHeapExpiryQueue} of node IDs and another
+ * one of relationship IDs.
+ * <p>
+ * On shutdown, each queue is written to a snapshot file named after its expiration index, in the database directory.
+ * On start, the snapshot is read and deleted, so that the queue does not have to be rebuilt from the graph. If there
+ * is no valid snapshot, e.g. after a crash, the queue is rebuilt from the graph. Just like the legacy index, the
+ * snapshot does not reflect changes made while the module is not running.
+ * <p>
+ * Failing to write or read a snapshot never fails the module; the queue is then rebuilt from the graph on next start.
+ */
+public class OffHeapExpirationIndexer extends ScheduledExpirationIndexer<OffHeapExpiryQueue> {
+
+    private static final Log LOG = LoggerFactory.getLogger(OffHeapExpirationIndexer.class);
+
+    private static final String SNAPSHOT_SUFFIX = ".expiry";
+
+    public OffHeapExpirationIndexer(GraphDatabaseService database, ExpirationConfiguration configuration) {
+        super(database, configuration);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected OffHeapExpiryQueue createSchedule() {
+        return new OffHeapExpiryQueue();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean restore(OffHeapExpiryQueue schedule, String indexName) {
+        Path snapshot = snapshotFile(indexName);
+
+        if (!Files.exists(snapshot)) {
+            return false;
+        }
+
+        try {
+            if (schedule.readSnapshot(snapshot)) {
+                return true;
+            }
+
+            LOG.warn("Ignoring invalid expiry snapshot %s", snapshot);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not read expiry snapshot " + snapshot, e);
+            schedule.clear();
+        } finally {
+            deleteSnapshot(snapshot);
+        }
+
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void save(OffHeapExpiryQueue schedule, String indexName) {
+        Path snapshot = snapshotFile(indexName);
+
+        try {
+            schedule.writeSnapshot(snapshot);
+            LOG.info("Saved %s entities scheduled for expiry to %s", schedule.size(), snapshot);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not write expiry snapshot " + snapshot, e);
+            deleteSnapshot(snapshot);
+        }
+    }
+
+    private Path snapshotFile(String indexName) {
+        return ((GraphDatabaseAPI) database).databaseLayout().databaseDirectory().toPath().resolve(indexName + SNAPSHOT_SUFFIX);
+    }
+
+    private void deleteSnapshot(Path snapshot) {
+        try {
+            Files.deleteIfExists(snapshot);
+        } catch (IOException e) {
+            LOG.warn("Could not delete expiry snapshot " + snapshot, e);
+        }
+    }
+}
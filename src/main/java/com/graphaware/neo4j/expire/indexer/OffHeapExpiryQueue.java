@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import com.graphaware.common.log.LoggerFactory;
+import org.neo4j.logging.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A binary min-heap of (expiry date, entity ID) pairs, held as packed <code>long</code>s in a direct (off-heap) buffer,
+ * ordered by expiry date. The heap holds at most {@link #MAX_ENTRIES} entries.
+ * <p>
+ * The authoritative expiry date of each entity is still kept on the Java heap, in a {@link LongLongHashMap} that takes
+ * between 21 and 43 bytes per scheduled entity, depending on how full its arrays are; heap entries that no longer
+ * match it are dropped lazily when they reach the top. Only the ordering of the schedule is off-heap.
+ * <p>
+ * So that entities rescheduled over and over (e.g. by refreshing their TTL) do not make the heap grow without bound,
+ * the heap is rebuilt from the scheduled entities whenever it holds more than twice as many entries as there are
+ * scheduled entities. If the heap is full nonetheless, scheduling an entity is logged and has no effect.
+ * <p>
+ * The queue can be written to and read from a snapshot file. Not thread-safe.
+ */
+public final class OffHeapExpiryQueue implements ExpirySchedule {
+
+    private static final Log LOG = LoggerFactory.getLogger(OffHeapExpiryQueue.class);
+
+    private static final long MAGIC = 0x4741455850495259L;
+    private static final int HEADER_LONGS = 2;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int CHUNK_LONGS = 8192;
+
+    /**
+     * Maximum number of heap entries, limited by the capacity of a single direct buffer.
+     */
+    public static final int MAX_ENTRIES = Integer.MAX_VALUE / (2 * Long.BYTES);
+
+    private final LongLongHashMap scheduled = new LongLongHashMap();
+
+    private LongBuffer heap = allocate(INITIAL_CAPACITY);
+    private int heapSize;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void schedule(long id, long expiry) {
+        if (scheduled.get(id) == expiry) {
+            return;
+        }
+
+        if (heapSize > INITIAL_CAPACITY && heapSize > 2 * scheduled.size()) {
+            rebuild();
+        }
+
+        if (!push(expiry, id)) {
+            LOG.error("Off-heap expiry queue cannot hold more than %s entries, not scheduling %s for expiry at %s", MAX_ENTRIES, id, expiry);
+            return;
+        }
+
+        scheduled.put(id, expiry);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancel(long id) {
+        scheduled.remove(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long expiryOf(long id) {
+        return scheduled.get(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return scheduled.size();
+    }
+
+    /**
+     * @return number of entries in the heap, including ones that have been cancelled or rescheduled but not yet dropped.
+     */
+    public int heapSize() {
+        return heapSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        scheduled.clear();
+        heap = allocate(INITIAL_CAPACITY);
+        heapSize = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * IDs are returned in the order of their expiry dates. Costs time proportional to the number of returned entries
+     * (and stale entries dropped on the way) times the logarithm of the size of the heap.
+     */
+    @Override
+    public long[] due(long timestamp, int limit) {
+        long[] result = new long[16];
+        int found = 0;
+        LongLongHashMap seen = new LongLongHashMap();
+
+        while (found < limit && heapSize > 0 && expiryAt(0) <= timestamp) {
+            long expiry = expiryAt(0);
+            long id = idAt(0);
+            pop();
+
+            if (scheduled.get(id) == expiry && seen.put(id, expiry) == LongLongHashMap.NO_VALUE) {
+                if (result.length < (found + 1) * 2) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+                result[found * 2] = expiry;
+                result[found * 2 + 1] = id;
+                found++;
+            }
+        }
+
+        long[] ids = new long[found];
+        for (int i = 0; i < found; i++) {
+            push(result[i * 2], result[i * 2 + 1]);
+            ids[i] = result[i * 2 + 1];
+        }
+
+        return ids;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Drops stale entries from the top of the heap on the way.
+     */
+    @Override
+    public long earliest() {
+        while (heapSize > 0 && scheduled.get(idAt(0)) != expiryAt(0)) {
+            pop();
+        }
+
+        return heapSize > 0 ? expiryAt(0) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Write all scheduled entities to a snapshot file, replacing its contents. The file is written in chunks, so its
+     * size is not limited by what can be memory-mapped at once.
+     *
+     * @param file to write to.
+     * @throws IOException if the file could not be written.
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            final ByteBuffer chunk = allocateChunk();
+
+            chunk.putLong(MAGIC);
+            chunk.putLong(scheduled.size());
+
+            try {
+                scheduled.forEach(new LongLongHashMap.EntryVisitor() {
+                    @Override
+                    public void visit(long key, long value) {
+                        if (chunk.remaining() < 2 * Long.BYTES) {
+                            try {
+                                writeFully(channel, chunk);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+
+                        chunk.putLong(key);
+                        chunk.putLong(value);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            writeFully(channel, chunk);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Replace the contents of this queue by the contents of a snapshot file written by {@link #writeSnapshot(Path)}.
+     * The file is read in chunks.
+     *
+     * @param file to read from.
+     * @return <code>true</code> iff the snapshot has been read, <code>false</code> if the file is not a valid snapshot,
+     * in which case the queue is left empty.
+     * @throws IOException if the file could not be read.
+     */
+    public boolean readSnapshot(Path file) throws IOException {
+        clear();
+
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            long bytes = channel.size();
+            if (bytes < HEADER_LONGS * Long.BYTES) {
+                return false;
+            }
+
+            ByteBuffer chunk = allocateChunk();
+            readFully(channel, chunk, HEADER_LONGS * Long.BYTES);
+
+            long magic = chunk.getLong();
+            long size = chunk.getLong();
+            if (magic != MAGIC || size < 0 || size > MAX_ENTRIES || bytes != (HEADER_LONGS + size * 2) * Long.BYTES) {
+                return false;
+            }
+
+            heap = allocate(Math.max(INITIAL_CAPACITY, (int) size));
+
+            for (long remaining = size; remaining > 0; ) {
+                int entries = (int) Math.min(remaining, CHUNK_LONGS / 2);
+                readFully(channel, chunk, entries * 2 * Long.BYTES);
+
+                for (int i = 0; i < entries; i++) {
+                    long id = chunk.getLong();
+                    long expiry = chunk.getLong();
+
+                    if (id < 0) {
+                        clear();
+                        return false;
+                    }
+
+                    scheduled.put(id, expiry);
+                    heap.put(heapSize * 2, expiry);
+                    heap.put(heapSize * 2 + 1, id);
+                    heapSize++;
+                }
+
+                remaining -= entries;
+            }
+
+            for (int i = heapSize / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+
+            return true;
+        }
+    }
+
+    private static ByteBuffer allocateChunk() {
+        return ByteBuffer.allocateDirect(CHUNK_LONGS * Long.BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer chunk) throws IOException {
+        chunk.flip();
+        while (chunk.hasRemaining()) {
+            channel.write(chunk);
+        }
+        chunk.clear();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer chunk, int bytes) throws IOException {
+        chunk.clear().limit(bytes);
+        while (chunk.hasRemaining()) {
+            if (channel.read(chunk) < 0) {
+                throw new EOFException("Unexpected end of expiry snapshot");
+            }
+        }
+        chunk.flip();
+    }
+
+    /**
+     * Replace the contents of the heap by one entry for each scheduled entity, dropping all stale entries.
+     */
+    private void rebuild() {
+        heapSize = 0;
+
+        scheduled.forEach(new LongLongHashMap.EntryVisitor() {
+            @Override
+            public void visit(long key, long value) {
+                heap.put(heapSize * 2, value);
+                heap.put(heapSize * 2 + 1, key);
+                heapSize++;
+            }
+        });
+
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * @return <code>true</code> iff the entry has been added, <code>false</code> if the heap is full.
+     */
+    private boolean push(long expiry, long id) {
+        if (heap.capacity() < (heapSize + 1) * 2) {
+            if (heapSize >= MAX_ENTRIES) {
+                if (heapSize == scheduled.size()) {
+                    return false;
+                }
+
+                rebuild();
+                return push(expiry, id);
+            }
+
+            LongBuffer grown = allocate((int) Math.min(heapSize * 2L, MAX_ENTRIES));
+            heap.position(0).limit(heapSize * 2);
+            grown.put(heap);
+            heap = grown;
+            heap.clear();
+        }
+
+        heap.put(heapSize * 2, expiry);
+        heap.put(heapSize * 2 + 1, id);
+        siftUp(heapSize++);
+
+        return true;
+    }
+
+    private void pop() {
+        heapSize--;
+        if (heapSize > 0) {
+            heap.put(0, expiryAt(heapSize));
+            heap.put(1, idAt(heapSize));
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!less(index, parent)) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int smallest = index;
+            int left = index * 2 + 1;
+            int right = left + 1;
+
+            if (left < heapSize && less(left, smallest)) {
+                smallest = left;
+            }
+            if (right < heapSize && less(right, smallest)) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private boolean less(int i, int j) {
+        long first = expiryAt(i);
+        long second = expiryAt(j);
+        return first < second || (first == second && idAt(i) < idAt(j));
+    }
+
+    private void swap(int i, int j) {
+        long expiry = expiryAt(i);
+        long id = idAt(i);
+        heap.put(i * 2, expiryAt(j));
+        heap.put(i * 2 + 1, idAt(j));
+        heap.put(j * 2, expiry);
+        heap.put(j * 2 + 1, id);
+    }
+
+    private long expiryAt(int index) {
+        return heap.get(index * 2);
+    }
+
+    private long idAt(int index) {
+        return heap.get(index * 2 + 1);
+    }
+
+    private static LongBuffer allocate(int entries) {
+        return ByteBuffer.allocateDirect(Math.multiplyExact(entries, 2 * Long.BYTES)).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+}
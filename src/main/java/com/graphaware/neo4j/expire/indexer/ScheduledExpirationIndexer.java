@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.neo4j.expire.config.ExpirationConfiguration;
+import com.graphaware.tx.executor.batch.IterableInputBatchTransactionExecutor;
+import com.graphaware.tx.executor.batch.UnitOfWork;
+import com.graphaware.tx.executor.input.AllNodes;
+import com.graphaware.tx.executor.input.AllRelationships;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.logging.Log;
+
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Base class for {@link ExpirationIndexer}s that keep the expiry schedule outside of the graph, in an
+ * {@link ExpirySchedule} of node IDs and another one of relationship IDs.
+ * <p>
+ * The schedules are (re)built from the graph when the indexer {@link #start()}s, unless a subclass manages to
+ * {@link #restore(ExpirySchedule, String)} them. Changes made in a transaction are only applied to the schedules once
+ * the transaction has committed.
+ *
+ * @param <S> type of the schedule.
+ */
+public abstract class ScheduledExpirationIndexer<S extends ExpirySchedule> extends BaseExpirationIndexer {
+
+    private static final Log LOG = LoggerFactory.getLogger(ScheduledExpirationIndexer.class);
+
+    private static final int BATCH_SIZE = 1000;
+    private static final long REMOVED = LongLongHashMap.NO_VALUE;
+
+    private final S nodeSchedule;
+    private final S relationshipSchedule;
+
+    private final ThreadLocal<PendingChanges> pendingChanges = new ThreadLocal<>();
+
+    protected ScheduledExpirationIndexer(GraphDatabaseService database, ExpirationConfiguration configuration) {
+        super(database, configuration);
+
+        this.nodeSchedule = createSchedule();
+        this.relationshipSchedule = createSchedule();
+    }
+
+    /**
+     * Create an empty schedule.
+     *
+     * @return schedule.
+     */
+    protected abstract S createSchedule();
+
+    /**
+     * Restore a schedule saved by {@link #save(ExpirySchedule, String)}. Returns <code>false</code> by default, meaning
+     * the schedule is built from the graph.
+     *
+     * @param schedule  empty schedule to restore into.
+     * @param indexName name of the expiration index the schedule represents.
+     * @return <code>true</code> iff the schedule has been restored.
+     */
+    protected boolean restore(S schedule, String indexName) {
+        return false;
+    }
+
+    /**
+     * Save a schedule so that it can be restored on next start. Does nothing by default.
+     *
+     * @param schedule  to save.
+     * @param indexName name of the expiration index the schedule represents.
+     */
+    protected void save(S schedule, String indexName) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start() {
+        String relationshipIndex = configuration.getRelationshipExpirationIndex();
+        String nodeIndex = configuration.getNodeExpirationIndex();
+
+        synchronized (relationshipSchedule) {
+            relationshipSchedule.clear();
+
+            if (relationshipIndex != null && restore(relationshipSchedule, relationshipIndex)) {
+                LOG.info("Restored %s relationships scheduled for expiry.", relationshipSchedule.size());
+                relationshipIndex = null;
+            }
+        }
+
+        synchronized (nodeSchedule) {
+            nodeSchedule.clear();
+
+            if (nodeIndex != null && restore(nodeSchedule, nodeIndex)) {
+                LOG.info("Restored %s nodes scheduled for expiry.", nodeSchedule.size());
+                nodeIndex = null;
+            }
+        }
+
+        if (relationshipIndex != null) {
+            LOG.info("Building relationship expiry schedule...");
+
+            new IterableInputBatchTransactionExecutor<>(database, BATCH_SIZE, new AllRelationships(database, BATCH_SIZE), new UnitOfWork<Relationship>() {
+                @Override
+                public void execute(GraphDatabaseService database, Relationship r, int batchNumber, int stepNumber) {
+                    indexRelationship(r);
+                }
+            }).execute();
+
+            LOG.info("Scheduled %s relationships for expiry.", relationshipSchedule.size());
+        }
+
+        if (nodeIndex != null) {
+            LOG.info("Building node expiry schedule...");
+
+            new IterableInputBatchTransactionExecutor<>(database, BATCH_SIZE, new AllNodes(database, BATCH_SIZE), new UnitOfWork<Node>() {
+                @Override
+                public void execute(GraphDatabaseService database, Node n, int batchNumber, int stepNumber) {
+                    indexNode(n);
+                }
+            }).execute();
+
+            LOG.info("Scheduled %s nodes for expiry.", nodeSchedule.size());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBuiltOnStart() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        if (configuration.getRelationshipExpirationIndex() != null) {
+            synchronized (relationshipSchedule) {
+                save(relationshipSchedule, configuration.getRelationshipExpirationIndex());
+            }
+        }
+
+        if (configuration.getNodeExpirationIndex() != null) {
+            synchronized (nodeSchedule) {
+                save(nodeSchedule, configuration.getNodeExpirationIndex());
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void indexNode(Node node) {
+        long expiryDate = getExpirationDate(node);
+
+        if (expiryDate != ExpiryDates.NONE) {
+            change(nodeSchedule, node.getId(), expiryDate);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void indexRelationship(Relationship relationship) {
+        long expiryDate = getExpirationDate(relationship);
+
+        if (expiryDate != ExpiryDates.NONE) {
+            change(relationshipSchedule, relationship.getId(), expiryDate);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rescheduleNode(Node node, long expiryDate) {
+        nodeIndexed(expiryDate);
+        change(nodeSchedule, node.getId(), expiryDate);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rescheduleRelationship(Relationship relationship, long expiryDate) {
+        relationshipIndexed(expiryDate);
+        change(relationshipSchedule, relationship.getId(), expiryDate);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeNode(Node node) {
+        change(nodeSchedule, node.getId(), REMOVED);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeRelationship(Relationship relationship) {
+        change(relationshipSchedule, relationship.getId(), REMOVED);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Nodes expiring before <code>from</code> are returned, too.
+     */
+    @Override
+    public ResourceIterator<Node> nodesExpiringBetween(long from, long timestamp, int limit) {
+        if (configuration.getNodeExpirationIndex() == null) {
+            return null;
+        }
+
+        return new EntityIdIterator<>(due(nodeSchedule, timestamp, limit), database::getNodeById);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Relationships expiring before <code>from</code> are returned, too.
+     */
+    @Override
+    public ResourceIterator<Relationship> relationshipsExpiringBetween(long from, long timestamp, int limit) {
+        if (configuration.getRelationshipExpirationIndex() == null) {
+            return null;
+        }
+
+        return new EntityIdIterator<>(due(relationshipSchedule, timestamp, limit), database::getRelationshipById);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long earliestNodeExpiry(long from) {
+        if (configuration.getNodeExpirationIndex() == null) {
+            return Long.MAX_VALUE;
+        }
+
+        return earliest(nodeSchedule);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long earliestRelationshipExpiry(long from) {
+        if (configuration.getRelationshipExpirationIndex() == null) {
+            return Long.MAX_VALUE;
+        }
+
+        return earliest(relationshipSchedule);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The schedule cannot be walked in order of expiry dates, so this does nothing.
+     */
+    @Override
+    public long walkNodeEntries(long from, int limit, ObjLongConsumer<Node> consumer) {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The schedule cannot be walked in order of expiry dates, so this does nothing.
+     */
+    @Override
+    public long walkRelationshipEntries(long from, int limit, ObjLongConsumer<Relationship> consumer) {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isNodeIndexed(Node node, long expiryDate) {
+        synchronized (nodeSchedule) {
+            return nodeSchedule.expiryOf(node.getId()) == expiryDate;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRelationshipIndexed(Relationship relationship, long expiryDate) {
+        synchronized (relationshipSchedule) {
+            return relationshipSchedule.expiryOf(relationship.getId()) == expiryDate;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeCommit() {
+        super.beforeCommit();
+
+        if (pendingChanges.get() == null) {
+            pendingChanges.set(new PendingChanges());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterCommit() {
+        super.afterCommit();
+
+        PendingChanges changes = pendingChanges.get();
+        pendingChanges.remove();
+
+        if (changes != null) {
+            changes.applyTo(nodeSchedule, relationshipSchedule);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterRollback() {
+        super.afterRollback();
+        pendingChanges.remove();
+    }
+
+    private void change(S schedule, long id, long expiryDate) {
+        PendingChanges changes = pendingChanges.get();
+
+        if (changes != null) {
+            changes.add(schedule == nodeSchedule, id, expiryDate);
+        } else {
+            apply(schedule, id, expiryDate);
+        }
+    }
+
+    private static void apply(ExpirySchedule schedule, long id, long expiryDate) {
+        synchronized (schedule) {
+            if (expiryDate == REMOVED) {
+                schedule.cancel(id);
+            } else {
+                schedule.schedule(id, expiryDate);
+            }
+        }
+    }
+
+    private static long[] due(ExpirySchedule schedule, long timestamp, int limit) {
+        synchronized (schedule) {
+            return schedule.due(timestamp, limit);
+        }
+    }
+
+    private static long earliest(ExpirySchedule schedule) {
+        synchronized (schedule) {
+            return schedule.earliest();
+        }
+    }
+
+    /**
+     * Changes to the schedules made by a single transaction, in the order in which they were made.
+     */
+    private static final class PendingChanges {
+
+        private long[] changes = new long[24];
+        private int size;
+
+        void add(boolean node, long id, long expiryDate) {
+            if (changes.length < (size + 1) * 3) {
+                changes = Arrays.copyOf(changes, changes.length * 2);
+            }
+
+            changes[size * 3] = node ? 1 : 0;
+            changes[size * 3 + 1] = id;
+            changes[size * 3 + 2] = expiryDate;
+            size++;
+        }
+
+        void applyTo(ExpirySchedule nodeSchedule, ExpirySchedule relationshipSchedule) {
+            for (int i = 0; i < size; i++) {
+                apply(changes[i * 3] == 1 ? nodeSchedule : relationshipSchedule, changes[i * 3 + 1], changes[i * 3 + 2]);
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import com.graphaware.common.log.LoggerFactory;
+import com.graphaware.neo4j.expire.config.ExpirationConfiguration;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.logging.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ExpirationIndexer} that uses a native schema index of Neo4j for nodes. Nodes with an expiry date get a label
+ * named after the node expiration index and their expiry date is stored in an internal property, indexed by a schema
+ * index that is created on start. Nodes expiring before a certain time are then found by an index range seek, and the
+ * index is maintained by the kernel, including when nodes are deleted.
+ * <p>
+ * The label and the property are written to the nodes themselves, as part of the transaction that gives them an expiry
+ * date, so they are visible to (and can be changed by) users, other modules, and label-based inclusion policies. The
+ * label name and property key are quoted in all queries, and all values are passed as parameters.
+ * <p>
+ * Neo4j does not support schema indexes on relationships, so relationships are indexed by a
+ * {@link LegacyExpirationIndexer}.
+ */
+public class SchemaExpirationIndexer extends BaseExpirationIndexer {
+
+    private static final Log LOG = LoggerFactory.getLogger(SchemaExpirationIndexer.class);
+
+    public static final String EXPIRE = "_expire";
+
+    private static final long INDEX_ONLINE_TIMEOUT_SECONDS = 60;
+
+    private final LegacyExpirationIndexer relationshipIndexer;
+    private final Label label;
+    private final String query;
+    private final String earliestQuery;
+
+    public SchemaExpirationIndexer(GraphDatabaseService database, ExpirationConfiguration configuration) {
+        super(database, configuration);
+
+        this.relationshipIndexer = new LegacyExpirationIndexer(database, configuration);
+
+        if (configuration.getNodeExpirationIndex() != null) {
+            this.label = Label.label(configuration.getNodeExpirationIndex());
+            String n = "n:" + identifier(label.name());
+            String expire = "n." + identifier(EXPIRE);
+            this.query = "MATCH (" + n + ") WHERE $from <= " + expire + " <= $timestamp RETURN n ORDER BY " + expire + " LIMIT $limit";
+            this.earliestQuery = "MATCH (" + n + ") WHERE " + expire + " >= $from RETURN " + expire + " AS expire ORDER BY expire LIMIT 1";
+        } else {
+            this.label = null;
+            this.query = null;
+            this.earliestQuery = null;
+        }
+    }
+
+    /**
+     * Quote a label or property key for use in a Cypher query, escaping any backticks it contains, so that the
+     * configured index name cannot change the meaning of the query.
+     *
+     * @param name to quote.
+     * @return quoted name.
+     */
+    private static String identifier(String name) {
+        return "`" + name.replace("`", "``") + "`";
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Creates the schema index if it does not exist and waits for it to come online.
+     */
+    @Override
+    public void start() {
+        if (label == null) {
+            return;
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            if (!indexExists()) {
+                LOG.info("Creating schema index on :%s(%s)", label.name(), EXPIRE);
+                database.schema().indexFor(label).on(EXPIRE).create();
+            }
+            tx.success();
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            database.schema().awaitIndexesOnline(INDEX_ONLINE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            tx.success();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isStoredOnEntities() {
+        return true;
+    }
+
+    private boolean indexExists() {
+        for (IndexDefinition index : database.schema().getIndexes(label)) {
+            for (String key : index.getPropertyKeys()) {
+                if (EXPIRE.equals(key)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Labels the node and sets its internal expiry property, or removes both if the node no longer has a valid expiry
+     * date.
+     */
+    @Override
+    public void indexNode(Node node) {
+        long expiryDate = getExpirationDate(node);
+
+        if (expiryDate != ExpiryDates.NONE) {
+            node.addLabel(label);
+            node.setProperty(EXPIRE, expiryDate);
+        } else if (node.hasLabel(label)) {
+            node.removeLabel(label);
+            node.removeProperty(EXPIRE);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void indexRelationship(Relationship relationship) {
+        relationshipIndexer.indexRelationship(relationship);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rescheduleNode(Node node, long expiryDate) {
+        nodeIndexed(expiryDate);
+        node.addLabel(label);
+        node.setProperty(EXPIRE, expiryDate);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rescheduleRelationship(Relationship relationship, long expiryDate) {
+        relationshipIndexer.rescheduleRelationship(relationship, expiryDate);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResourceIterator<Node> nodesExpiringBetween(long from, long timestamp, int limit) {
+        if (label == null) {
+            return null;
+        }
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("from", from);
+        params.put("timestamp", timestamp);
+        params.put("limit", limit);
+
+        return database.execute(query, params).columnAs("n");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResourceIterator<Relationship> relationshipsExpiringBetween(long from, long timestamp, int limit) {
+        return relationshipIndexer.relationshipsExpiringBetween(from, timestamp, limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long earliestNodeExpiry(long from) {
+        if (label == null) {
+            return Long.MAX_VALUE;
+        }
+
+        try (ResourceIterator<Number> expiries = database.execute(earliestQuery, Collections.<String, Object>singletonMap("from", from)).columnAs("expire")) {
+            return expiries.hasNext() ? expiries.next().longValue() : Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long earliestRelationshipExpiry(long from) {
+        return relationshipIndexer.earliestRelationshipExpiry(from);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isNodeIndexed(Node node, long expiryDate) {
+        Object indexed = node.getProperty(EXPIRE, null);
+        return node.hasLabel(label) && indexed instanceof Number && ((Number) indexed).longValue() == expiryDate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRelationshipIndexed(Relationship relationship, long expiryDate) {
+        return relationshipIndexer.isRelationshipIndexed(relationship, expiryDate);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long pollEarliestIndexedRelationshipExpiry() {
+        return relationshipIndexer.pollEarliestIndexedRelationshipExpiry();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long peekEarliestIndexedRelationshipExpiry() {
+        return relationshipIndexer.peekEarliestIndexedRelationshipExpiry();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeCommit() {
+        super.beforeCommit();
+        relationshipIndexer.beforeCommit();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() {
+        super.flush();
+        relationshipIndexer.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterCommit() {
+        super.afterCommit();
+        relationshipIndexer.afterCommit();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterRollback() {
+        super.afterRollback();
+        relationshipIndexer.afterRollback();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Does nothing, the schema index is maintained by the kernel when a node is deleted, and by
+     * {@link #indexNode(Node)} when its expiry date changes.
+     */
+    @Override
+    public void removeNode(Node node) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeRelationship(Relationship relationship) {
+        relationshipIndexer.removeRelationship(relationship);
+    }
+}
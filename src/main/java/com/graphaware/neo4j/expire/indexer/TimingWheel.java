@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import java.util.Arrays;
+
+/**
+ * A hierarchical timing wheel of entity IDs and their expiry dates, held in primitive <code>long</code> arrays.
+ * <p>
+ * Each level has {@link #SLOTS} slots; a slot on level <code>n</code> spans <code>SLOTS^n</code> ticks. Entries are
+ * placed on the lowest level that can hold them and cascade down as time advances, until they become due. Advancing the
+ * wheel therefore costs time proportional to the number of elapsed ticks and entries that cascade, rather than to the
+ * number of scheduled entries.
+ * <p>
+ * Removal is lazy: the authoritative expiry date of each entity is kept in a {@link LongLongHashMap} and entries that
+ * no longer match it are dropped whenever they are encountered.
+ * <p>
+ * The earliest expiry date is kept up to date as entries are scheduled. When the entry holding it is cancelled or
+ * moved to a later date, it is repaired lazily, by looking at the slots in the order of the times they cover and
+ * stopping as soon as no later slot can hold an earlier entry. Not thread-safe.
+ */
+public final class TimingWheel implements ExpirySchedule {
+
+    public static final int SLOTS = 64;
+    private static final int SLOT_BITS = 6;
+    private static final int LEVELS = 5;
+
+    private final long tickMillis;
+    private final LongLongHashMap scheduled = new LongLongHashMap();
+
+    private final long[][] slotEntries = new long[LEVELS * SLOTS][];
+    private final int[] slotSizes = new int[LEVELS * SLOTS];
+
+    private long[] overflow = new long[0];
+    private int overflowSize;
+
+    private long[] due = new long[32];
+    private int dueSize;
+
+    private long currentTick;
+
+    private long earliest = Long.MAX_VALUE;
+    private boolean earliestKnown = true;
+
+    /**
+     * Construct a new wheel.
+     *
+     * @param tickMillis duration of a single tick in ms.
+     * @param now        current time in ms since epoch.
+     */
+    public TimingWheel(long tickMillis, long now) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+
+        this.tickMillis = tickMillis;
+        this.currentTick = tickOf(now);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void schedule(long id, long expiry) {
+        long previous = scheduled.put(id, expiry);
+        if (previous == expiry) {
+            return;
+        }
+
+        if (earliestKnown) {
+            if (expiry < earliest) {
+                earliest = expiry;
+            } else if (previous == earliest) {
+                earliestKnown = false;
+            }
+        }
+
+        place(id, expiry);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancel(long id) {
+        if (scheduled.remove(id) == earliest) {
+            earliestKnown = false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long expiryOf(long id) {
+        return scheduled.get(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return scheduled.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        scheduled.clear();
+        for (int i = 0; i < slotSizes.length; i++) {
+            slotEntries[i] = null;
+            slotSizes[i] = 0;
+        }
+        overflow = new long[0];
+        overflowSize = 0;
+        dueSize = 0;
+        earliest = Long.MAX_VALUE;
+        earliestKnown = true;
+    }
+
+    /**
+     * Advance the wheel to the given time, moving all entries that have become due to the due list, and dropping
+     * cancelled entries from it.
+     *
+     * @param now current time in ms since epoch.
+     */
+    public void advance(long now) {
+        long targetTick = tickOf(now);
+
+        while (currentTick < targetTick) {
+            currentTick++;
+
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    if (level == LEVELS - 1 && ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1)) == 0) {
+                        cascadeOverflow();
+                    }
+                    cascade(level, slotIndex(level, currentTick));
+                }
+            }
+
+            cascade(0, slotIndex(0, currentTick));
+        }
+
+        compactDue();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Advances the wheel to the given timestamp first. IDs are returned in the order in which they became due.
+     */
+    @Override
+    public long[] due(long timestamp, int limit) {
+        advance(timestamp);
+
+        long[] result = new long[Math.min(dueSize, limit)];
+        int copied = 0;
+        LongLongHashMap seen = new LongLongHashMap(result.length);
+
+        for (int i = 0; i < dueSize && copied < limit; i++) {
+            long id = due[i * 2];
+            long expiry = due[i * 2 + 1];
+
+            if (expiry <= timestamp && scheduled.get(id) == expiry && seen.put(id, expiry) == LongLongHashMap.NO_VALUE) {
+                result[copied++] = id;
+            }
+        }
+
+        return Arrays.copyOf(result, copied);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Constant time, unless the entry with the earliest expiry date has been cancelled or rescheduled since the last
+     * call, in which case only the slots up to the one holding the new earliest entry are looked at.
+     */
+    @Override
+    public long earliest() {
+        if (!earliestKnown) {
+            earliest = findEarliest();
+            earliestKnown = true;
+        }
+
+        return earliest;
+    }
+
+    /**
+     * Find the earliest expiry date of all scheduled entities. Entries in the due list are not later than the current
+     * tick, entries in slots are later than that, and entries in a slot are not earlier than the first tick the slot
+     * covers. Slots are therefore looked at in the order of their first ticks, until one starts after the earliest
+     * entry found so far.
+     */
+    private long findEarliest() {
+        long result = earliest(due, dueSize);
+        if (result != Long.MAX_VALUE) {
+            return result;
+        }
+
+        long[] starts = new long[LEVELS * SLOTS];
+        Integer[] slots = new Integer[LEVELS * SLOTS];
+        int nonEmpty = 0;
+
+        for (int slot = 0; slot < slotSizes.length; slot++) {
+            if (slotSizes[slot] > 0) {
+                starts[slot] = firstTick(slot / SLOTS, slot % SLOTS);
+                slots[nonEmpty++] = slot;
+            }
+        }
+
+        Arrays.sort(slots, 0, nonEmpty, (a, b) -> Long.compare(starts[a], starts[b]));
+
+        for (int i = 0; i < nonEmpty && starts[slots[i]] * tickMillis <= result; i++) {
+            result = Math.min(result, earliest(slotEntries[slots[i]], slotSizes[slots[i]]));
+        }
+
+        //overflow entries have been placed at least a full turn of the top level ahead, in the current turn
+        long overflowStart = ((currentTick >>> (SLOT_BITS * LEVELS)) + 1) << (SLOT_BITS * LEVELS);
+        if (overflowSize > 0 && overflowStart * tickMillis <= result) {
+            result = Math.min(result, earliest(overflow, overflowSize));
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the earliest expiry date of the given entries that have not been cancelled or rescheduled since they
+     * were placed, {@link Long#MAX_VALUE} if there are none.
+     */
+    private long earliest(long[] entries, int size) {
+        long result = Long.MAX_VALUE;
+
+        for (int i = 0; i < size; i++) {
+            long id = entries[i * 2];
+            long expiry = entries[i * 2 + 1];
+
+            if (expiry < result && scheduled.get(id) == expiry) {
+                result = expiry;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the first tick that a slot on a level can currently hold entries for. A slot on level <code>n</code>
+     * holds entries less than <code>SLOTS</code> spans of <code>SLOTS^n</code> ticks ahead of the span of the current
+     * tick, within the span that has its index.
+     */
+    private long firstTick(int level, int index) {
+        long currentSpan = currentTick >>> (SLOT_BITS * level);
+        long span = currentSpan + ((index - currentSpan) & (SLOTS - 1));
+        if (span == currentSpan) {
+            span += SLOTS;
+        }
+
+        return span << (SLOT_BITS * level);
+    }
+
+    /**
+     * @return number of entries in the due list. Includes entries that have been cancelled since the last
+     * {@link #advance(long)}.
+     */
+    public int dueSize() {
+        return dueSize;
+    }
+
+    private void place(long id, long expiry) {
+        long tick = tickOf(expiry);
+        long delta = tick - currentTick;
+
+        if (delta <= 0) {
+            due = append(due, dueSize++, id, expiry);
+            return;
+        }
+
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < (1L << (SLOT_BITS * (level + 1)))) {
+                int slot = level * SLOTS + slotIndex(level, tick);
+                long[] entries = slotEntries[slot];
+                if (entries == null) {
+                    entries = new long[8];
+                }
+                slotEntries[slot] = append(entries, slotSizes[slot]++, id, expiry);
+                return;
+            }
+        }
+
+        overflow = append(overflow, overflowSize++, id, expiry);
+    }
+
+    private void cascade(int level, int index) {
+        int slot = level * SLOTS + index;
+        long[] entries = slotEntries[slot];
+        int size = slotSizes[slot];
+
+        if (size == 0) {
+            return;
+        }
+
+        slotEntries[slot] = null;
+        slotSizes[slot] = 0;
+
+        for (int i = 0; i < size; i++) {
+            long id = entries[i * 2];
+            long expiry = entries[i * 2 + 1];
+
+            if (scheduled.get(id) == expiry) {
+                place(id, expiry);
+            }
+        }
+    }
+
+    private void cascadeOverflow() {
+        long[] entries = overflow;
+        int size = overflowSize;
+
+        overflow = new long[0];
+        overflowSize = 0;
+
+        for (int i = 0; i < size; i++) {
+            long id = entries[i * 2];
+            long expiry = entries[i * 2 + 1];
+
+            if (scheduled.get(id) == expiry) {
+                place(id, expiry);
+            }
+        }
+    }
+
+    private void compactDue() {
+        int kept = 0;
+
+        for (int i = 0; i < dueSize; i++) {
+            long id = due[i * 2];
+            long expiry = due[i * 2 + 1];
+
+            if (scheduled.get(id) == expiry) {
+                due[kept * 2] = id;
+                due[kept * 2 + 1] = expiry;
+                kept++;
+            }
+        }
+
+        dueSize = kept;
+    }
+
+    private long tickOf(long millis) {
+        return Math.floorDiv(millis, tickMillis);
+    }
+
+    private static int slotIndex(int level, long tick) {
+        return (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+    }
+
+    private static long[] append(long[] array, int index, long id, long expiry) {
+        if (array.length < (index + 1) * 2) {
+            long[] grown = new long[Math.max(8, array.length * 2)];
+            System.arraycopy(array, 0, grown, 0, index * 2);
+            array = grown;
+        }
+
+        array[index * 2] = id;
+        array[index * 2 + 1] = expiry;
+
+        return array;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import com.graphaware.neo4j.expire.config.ExpirationConfiguration;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+/**
+ * {@link ExpirationIndexer} that keeps the expiry schedule in memory, in a {@link TimingWheel} of node IDs and another
+ * one of relationship IDs. Finding expired entities thus costs time proportional to the number of expired entities,
+ * rather than to the size of the schedule.
+ * <p>
+ * The schedule is not persisted; it is rebuilt from the graph when the indexer {@link #start()}s.
+ */
+public class TimingWheelExpirationIndexer extends ScheduledExpirationIndexer<TimingWheel> {
+
+    private static final long TICK_MILLIS = 100;
+
+    public TimingWheelExpirationIndexer(GraphDatabaseService database, ExpirationConfiguration configuration) {
+        super(database, configuration);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected TimingWheel createSchedule() {
+        return new TimingWheel(TICK_MILLIS, System.currentTimeMillis());
+    }
+}
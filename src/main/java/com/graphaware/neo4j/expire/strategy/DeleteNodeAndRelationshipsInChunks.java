@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.strategy;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+/**
+ * {@link ExpirationStrategy} that deletes the expired {@link Node} and all its {@link Relationship}s, like
+ * {@link DeleteNodeAndRelationships}, but deletes at most a given number of relationships at a time, so that expiring
+ * a dense node does not result in a huge transaction. The module applies the same number as a limit to each run, across
+ * all nodes expired in it, so that a run expiring several dense nodes does not result in a huge transaction either;
+ * nodes whose relationships do not fit are left for the next run.
+ * <p>
+ * A node with more relationships than that is left in place after a chunk of its relationships has been deleted. Since
+ * progress has been made, the node is looked at again on the very next run rather than after a backoff, and is finally
+ * deleted once it has few enough relationships left. Progress is kept in the graph itself, so it survives restarts.
+ */
+public final class DeleteNodeAndRelationshipsInChunks implements ExpirationStrategy<Node> {
+
+    public static final int DEFAULT_CHUNK_SIZE = 10_000;
+
+    private final int chunkSize;
+
+    /**
+     * Construct a new strategy.
+     *
+     * @param chunkSize maximum number of relationships to delete at a time, and in each run. Must be greater than 0.
+     */
+    public DeleteNodeAndRelationshipsInChunks(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be greater than 0");
+        }
+
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void expire(Node node) {
+        if (node.getDegree() > chunkSize) {
+            int deleted = 0;
+
+            for (Relationship r : node.getRelationships()) {
+                if (deleted == chunkSize) {
+                    break;
+                }
+                r.delete();
+                deleted++;
+            }
+
+            return;
+        }
+
+        for (Relationship r : node.getRelationships()) {
+            r.delete();
+        }
+
+        node.delete();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        return chunkSize == ((DeleteNodeAndRelationshipsInChunks) o).chunkSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return chunkSize;
+    }
+}
@@ -26,7 +26,8 @@ import org.neo4j.graphdb.Entity;
 public interface ExpirationStrategy<E extends Entity> {
 
     /**
-     * Expire an entity.
+     * Expire an entity. An entity that still exists when this method returns (e.g. a node that cannot be deleted yet)
+     * is considered left in place for now, and is looked at again later.
      *
      * @param entity to expire.
      */
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveBatchSizeTest {
+
+    @Test
+    public void shouldStartAtMinimumAndGrowAdditivelyWhileUnderTarget() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(100, 2100, 50);
+        assertEquals(100, batchSize.get());
+
+        batchSize.completed(10, true);
+        assertEquals(200, batchSize.get());
+
+        batchSize.completed(10, true);
+        assertEquals(300, batchSize.get());
+    }
+
+    @Test
+    public void shouldNotGrowWhenBatchWasNotUsedUp() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(100, 2100, 50);
+
+        batchSize.completed(10, false);
+        assertEquals(100, batchSize.get());
+    }
+
+    @Test
+    public void shouldHalveWhenOverTargetOrFailed() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(100, 2100, 50);
+        for (int i = 0; i < 10; i++) {
+            batchSize.completed(10, true);
+        }
+        assertEquals(1100, batchSize.get());
+
+        batchSize.completed(100, true);
+        assertEquals(550, batchSize.get());
+
+        batchSize.failed();
+        assertEquals(275, batchSize.get());
+    }
+
+    @Test
+    public void shouldStayWithinLimits() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(100, 2100, 50);
+        for (int i = 0; i < 100; i++) {
+            batchSize.completed(10, true);
+        }
+        assertEquals(2100, batchSize.get());
+
+        for (int i = 0; i < 100; i++) {
+            batchSize.completed(100, true);
+        }
+        assertEquals(100, batchSize.get());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import com.graphaware.neo4j.expire.config.ExpirationConfiguration;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+/**
+ * Measures the overhead the {@link ExpirationModule} adds to write transactions, most of which typically do not
+ * touch expiry at all, by running the same writes on a database without and with the module. Not a test; run the main
+ * method (on two revisions to compare them).
+ */
+public class BeforeCommitBenchmark {
+
+    private static final int NODES = 1_000;
+    private static final int WARMUP_ROUNDS = 2_000;
+    private static final int ROUNDS = 10_000;
+
+    public static void main(String[] args) {
+        double withoutModule = report("no module, unrelated writes", false, false);
+        double withModule = report("module, unrelated writes", true, false);
+        report("module, expiry writes", true, true);
+
+        System.out.println(String.format("%-30s %8.1f us/tx", "module overhead, unrelated", withModule - withoutModule));
+    }
+
+    /**
+     * @return microseconds per transaction.
+     */
+    private static double report(String scenario, boolean withModule, boolean touchExpiry) {
+        GraphDatabaseService database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        try {
+            if (withModule) {
+                GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+                runtime.registerModule(new ExpirationModule("EXP", database, ExpirationConfiguration.defaultConfiguration()
+                        .withNodeExpirationProperty("expire")
+                        .withNodeTtlProperty("ttl")));
+                runtime.start();
+                runtime.waitUntilStarted();
+            }
+
+            long[] ids = createNodes(database);
+
+            write(database, ids, WARMUP_ROUNDS, touchExpiry);
+
+            long start = System.nanoTime();
+            write(database, ids, ROUNDS, touchExpiry);
+            long elapsed = System.nanoTime() - start;
+
+            double perTransaction = elapsed / 1000.0 / ROUNDS;
+            System.out.println(String.format("%-30s %8.1f us/tx", scenario, perTransaction));
+
+            return perTransaction;
+        } finally {
+            database.shutdown();
+        }
+    }
+
+    private static long[] createNodes(GraphDatabaseService database) {
+        long[] ids = new long[NODES];
+
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < NODES; i++) {
+                ids[i] = database.createNode().getId();
+            }
+            tx.success();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Run transactions that each change a property on ten nodes, create a node, and delete the node created by the
+     * previous transaction.
+     */
+    private static void write(GraphDatabaseService database, long[] ids, int rounds, boolean touchExpiry) {
+        long farFuture = System.currentTimeMillis() + 365L * 24 * 3600 * 1000;
+        long previous = -1;
+
+        for (int round = 0; round < rounds; round++) {
+            try (Transaction tx = database.beginTx()) {
+                for (int i = 0; i < 10; i++) {
+                    Node node = database.getNodeById(ids[(round * 10 + i) % NODES]);
+                    if (touchExpiry) {
+                        node.setProperty("expire", farFuture + round);
+                    } else {
+                        node.setProperty("counter", round);
+                    }
+                }
+
+                if (previous >= 0) {
+                    database.getNodeById(previous).delete();
+                }
+
+                Node created = database.createNode();
+                created.setProperty("name", "temporary");
+                previous = created.getId();
+
+                tx.success();
+            }
+        }
+    }
+}
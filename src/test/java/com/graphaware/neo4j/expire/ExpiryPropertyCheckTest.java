@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.neo4j.expire;
+
+import org.junit.Test;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+
+public class ExpiryPropertyCheckTest {
+
+    private final ExpiryPropertyCheck check = new ExpiryPropertyCheck(singleton("expire"), Collections.emptySet());
+
+    @Test
+    public void workShouldWaitForCheckWhenHandedOverFirst() {
+        List<Boolean> outcomes = new ArrayList<>();
+
+        check.whenChecked(outcomes::add);
+        assertEquals(emptyList(), outcomes);
+
+        check.beforeCommit(transactionData("assignedNodeProperties", "name", "expire"));
+        assertEquals(asList(true), outcomes);
+    }
+
+    @Test
+    public void workShouldRunStraightAwayWhenCheckedFirst() {
+        List<Boolean> outcomes = new ArrayList<>();
+
+        check.beforeCommit(transactionData("assignedNodeProperties", "name"));
+        check.whenChecked(outcomes::add);
+        assertEquals(asList(false), outcomes);
+    }
+
+    @Test
+    public void removedPropertiesShouldCount() {
+        List<Boolean> outcomes = new ArrayList<>();
+
+        check.whenChecked(outcomes::add);
+        check.beforeCommit(transactionData("removedNodeProperties", "expire"));
+        assertEquals(asList(true), outcomes);
+    }
+
+    @Test
+    public void propertiesOfUnindexedEntityTypesShouldNotCount() {
+        List<Boolean> outcomes = new ArrayList<>();
+
+        check.whenChecked(outcomes::add);
+        check.beforeCommit(transactionData("assignedRelationshipProperties", "expire"));
+        assertEquals(asList(false), outcomes);
+    }
+
+    @Test
+    public void outcomeShouldBeForgottenAfterTransaction() {
+        List<Boolean> outcomes = new ArrayList<>();
+
+        TransactionData data = transactionData("assignedNodeProperties", "expire");
+        check.beforeCommit(data);
+        check.afterCommit(data, null);
+
+        check.whenChecked(outcomes::add);
+        assertEquals(emptyList(), outcomes);
+
+        check.beforeCommit(transactionData("assignedNodeProperties", "name"));
+        assertEquals(asList(false), outcomes);
+    }
+
+    /**
+     * @return transaction data with property entries for the given keys returned by the given method and nothing else.
+     */
+    private static TransactionData transactionData(String method, String... keys) {
+        List<PropertyEntry<?>> entries = new ArrayList<>();
+        for (String key : keys) {
+            entries.add((PropertyEntry<?>) Proxy.newProxyInstance(PropertyEntry.class.getClassLoader(), new Class[]{PropertyEntry.class},
+                    (proxy, m, args) -> "key".equals(m.getName()) ? key : null));
+        }
+
+        return (TransactionData) Proxy.newProxyInstance(TransactionData.class.getClassLoader(), new Class[]{TransactionData.class},
+                (proxy, m, args) -> method.equals(m.getName()) ? entries : emptyList());
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class InclusionExpressionsTest {
+
+    @Test
+    public void shouldRecogniseLabelOnlyExpressions() {
+        assertEquals(Collections.singleton("State"), InclusionExpressions.labels("hasLabel('State')"));
+        assertEquals(new HashSet<>(Arrays.asList("A", "B")), InclusionExpressions.labels("hasLabel('A') || (hasLabel('B'))"));
+    }
+
+    @Test
+    public void shouldNotLimitLabelsOfOtherExpressions() {
+        assertEquals(Collections.emptySet(), InclusionExpressions.labels("hasLabel('A') && hasProperty('b')"));
+        assertEquals(Collections.emptySet(), InclusionExpressions.labels("hasLabel('A') || hasProperty('b')"));
+        assertEquals(Collections.emptySet(), InclusionExpressions.labels("!hasLabel('A')"));
+    }
+
+    @Test
+    public void shouldRecogniseTypeOnlyExpressions() {
+        assertEquals(Collections.singleton("R"), InclusionExpressions.relationshipTypes("isType('R')"));
+        assertEquals(new HashSet<>(Arrays.asList("R", "S")), InclusionExpressions.relationshipTypes("isType('R') || type == 'S'"));
+    }
+
+    @Test
+    public void shouldNotLimitTypesOfOtherExpressions() {
+        assertEquals(Collections.emptySet(), InclusionExpressions.relationshipTypes("isType('R') && isOutgoing()"));
+        assertEquals(Collections.emptySet(), InclusionExpressions.relationshipTypes("type != 'R'"));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class InitializationCheckpointTest {
+
+    @Test
+    public void shouldStartFromScratchWithoutCheckpoint() throws IOException {
+        Path directory = Files.createTempDirectory("expire");
+        Path file = directory.resolve("expire.initialization");
+
+        try {
+            InitializationCheckpoint checkpoint = new InitializationCheckpoint(file, 42);
+            assertEquals(0, checkpoint.resumeFrom(0));
+            assertEquals(0, checkpoint.resumeFrom(1));
+        } finally {
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void shouldResumeFromSavedCheckpoint() throws IOException {
+        Path directory = Files.createTempDirectory("expire");
+        Path file = directory.resolve("expire.initialization");
+
+        try {
+            new InitializationCheckpoint(file, 42).save(0, 5000);
+
+            InitializationCheckpoint checkpoint = new InitializationCheckpoint(file, 42);
+            assertEquals(5000, checkpoint.resumeFrom(0));
+            assertEquals(0, checkpoint.resumeFrom(1));
+
+            checkpoint.save(1, 3000);
+            assertEquals(Long.MAX_VALUE, checkpoint.resumeFrom(0));
+            assertEquals(3000, checkpoint.resumeFrom(1));
+
+            checkpoint.clear();
+            assertFalse(Files.exists(file));
+            assertEquals(0, checkpoint.resumeFrom(1));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void shouldDeleteCheckpointMadeWithDifferentConfiguration() throws IOException {
+        Path directory = Files.createTempDirectory("expire");
+        Path file = directory.resolve("expire.initialization");
+
+        try {
+            new InitializationCheckpoint(file, 42).save(1, 5000);
+
+            InitializationCheckpoint checkpoint = new InitializationCheckpoint(file, 43);
+            assertEquals(0, checkpoint.resumeFrom(0));
+            assertEquals(0, checkpoint.resumeFrom(1));
+            assertFalse(Files.exists(file));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void shouldDeleteInvalidCheckpoint() throws IOException {
+        Path directory = Files.createTempDirectory("expire");
+        Path file = directory.resolve("expire.initialization");
+
+        try {
+            Files.write(file, "not a checkpoint".getBytes());
+
+            assertEquals(0, new InitializationCheckpoint(file, 42).resumeFrom(0));
+            assertFalse(Files.exists(file));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+}
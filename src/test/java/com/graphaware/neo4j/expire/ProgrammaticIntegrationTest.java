@@ -16,10 +16,14 @@
 
 package com.graphaware.neo4j.expire;
 
+import com.graphaware.common.policy.inclusion.composite.CompositeNodeInclusionPolicy;
+import com.graphaware.common.policy.inclusion.spel.SpelNodeInclusionPolicy;
 import com.graphaware.common.util.IterableUtils;
 import com.graphaware.neo4j.expire.config.ExpirationConfiguration;
+import com.graphaware.neo4j.expire.indexer.IndexerType;
 import com.graphaware.neo4j.expire.indexer.LegacyExpirationIndexer;
 import com.graphaware.neo4j.expire.strategy.DeleteNodeAndRelationships;
+import com.graphaware.neo4j.expire.strategy.DeleteNodeAndRelationshipsInChunks;
 import com.graphaware.neo4j.expire.strategy.DeleteOrphanedNodeOnly;
 import com.graphaware.runtime.GraphAwareRuntime;
 import com.graphaware.runtime.GraphAwareRuntimeFactory;
@@ -28,17 +32,30 @@ import com.graphaware.runtime.schedule.FixedDelayTimingStrategy;
 import com.graphaware.test.integration.EmbeddedDatabaseIntegrationTest;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.junit.Test;
+import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.graphdb.index.Index;
 import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.helpers.collection.Iterables;
+import org.neo4j.index.lucene.ValueContext;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.graphaware.test.unit.GraphUnit.assertEmpty;
 import static com.graphaware.test.unit.GraphUnit.assertSameGraph;
 import static com.graphaware.test.util.TestUtils.waitFor;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ProgrammaticIntegrationTest extends EmbeddedDatabaseIntegrationTest {
 
@@ -85,6 +102,24 @@ public class ProgrammaticIntegrationTest extends EmbeddedDatabaseIntegrationTest
         assertEmpty(getDatabase());
     }
 
+    @Test
+    public void shouldExpireNodesWithTemporalExpiryDatesAndTtls() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration().withNodeExpirationProperty("expire").withNodeTtlProperty("ttl"));
+
+        long now = System.currentTimeMillis();
+        long twoSecondsFromNow = now + 2 * SECOND;
+
+        getDatabase().execute("CREATE (:State {name:'Cloudy', expire:datetime({epochMillis:" + twoSecondsFromNow + "})}), (:State {name:'Windy', ttl:duration({seconds:2})}), (:State {name:'Sunny', ttl:duration({days:1})})");
+
+        waitFor(2100 - (System.currentTimeMillis() - now));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(1L, getDatabase().execute("MATCH (n:State) RETURN count(n) AS c").next().get("c"));
+            assertEquals("Sunny", getDatabase().execute("MATCH (n:State) RETURN n.name AS name").next().get("name"));
+            tx.success();
+        }
+    }
+
     @Test
     public void shouldExpireRelationshipsWhenExpiryDateReached() {
         bootstrap(ExpirationConfiguration.defaultConfiguration().withRelationshipExpirationProperty("expire"));
@@ -595,6 +630,827 @@ public class ProgrammaticIntegrationTest extends EmbeddedDatabaseIntegrationTest
 
     }
 
+    @Test
+    public void bufferedIndexChangesShouldBeAppliedOnceOnCommitAndDroppedOnRollback() {
+        ExpirationConfiguration config = ExpirationConfiguration.defaultConfiguration().withNodeExpirationProperty("expire");
+        LegacyExpirationIndexer indexer = expirationIndexer(config);
+
+        long oneMinuteFromNow = System.currentTimeMillis() + MINUTE;
+
+        getDatabase().execute("CREATE (:State {name:'Cloudy', expire:" + oneMinuteFromNow + "})");
+
+        indexer.beforeCommit();
+        try (Transaction tx = getDatabase().beginTx()) {
+            indexer.indexNode(getDatabase().findNode(Label.label("State"), "name", "Cloudy"));
+            assertEquals(0, countNodesInIndex());
+
+            indexer.flush();
+            indexer.flush();
+            tx.success();
+        }
+        indexer.afterCommit();
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(1, countNodesInIndex());
+            assertEquals(oneMinuteFromNow, indexer.earliestNodeExpiry(0));
+            tx.success();
+        }
+
+        indexer.beforeCommit();
+        try (Transaction tx = getDatabase().beginTx()) {
+            indexer.rescheduleNode(getDatabase().findNode(Label.label("State"), "name", "Cloudy"), oneMinuteFromNow + MINUTE);
+            indexer.flush();
+            tx.failure();
+        }
+        indexer.afterRollback();
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(1, countNodesInIndex());
+            assertEquals(oneMinuteFromNow, indexer.earliestNodeExpiry(0));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void nodesLeftInPlaceShouldNotPreventOtherNodesFromExpiring() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withNodeExpirationStrategy(DeleteOrphanedNodeOnly.getInstance())
+                .withMaxNoExpirations(1));
+
+        long now = System.currentTimeMillis();
+        long twoSecondsAgo = now - 2 * SECOND;
+        long oneSecondAgo = now - SECOND;
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', expire:" + twoSecondsAgo + "})-[:THEN]->(s2:State {name:'Windy'}), (s3:State {name:'Sunny', expire:" + oneSecondAgo + "})");
+
+        waitFor(500);
+
+        assertSameGraph(getDatabase(), "CREATE (s1:State {name:'Cloudy', expire:" + twoSecondsAgo + "})-[:THEN]->(s2:State {name:'Windy'})");
+    }
+
+    @Test
+    public void nodesLeftInPlaceShouldNotUseUpBudget() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withNodeExpirationStrategy(DeleteOrphanedNodeOnly.getInstance())
+                .withMaxNoExpirations(1));
+
+        long now = System.currentTimeMillis();
+        long twoSecondsAgo = now - 2 * SECOND;
+        long oneSecondFromNow = now + SECOND;
+
+        getDatabase().execute("CREATE (w:State {name:'Windy'}), (s:State {name:'Sunny', expire:" + oneSecondFromNow + "}) WITH w UNWIND range(1, 5) AS i CREATE (:State {name:'Cloudy', expire:" + twoSecondsAgo + "})-[:THEN]->(w)");
+
+        waitFor(1500 - (System.currentTimeMillis() - now));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(0L, getDatabase().execute("MATCH (n:State {name:'Sunny'}) RETURN count(n) AS c").next().get("c"));
+            assertEquals(5L, getDatabase().execute("MATCH (n:State {name:'Cloudy'}) RETURN count(n) AS c").next().get("c"));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void nodesLeftInPlaceShouldBeExpiredAsSoonAsTheirRelationshipsAreDeleted() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withNodeExpirationStrategy(DeleteOrphanedNodeOnly.getInstance()));
+
+        long now = System.currentTimeMillis();
+        long oneSecondAgo = now - SECOND;
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', expire:" + oneSecondAgo + "})-[:THEN]->(s2:State {name:'Windy'})");
+
+        waitFor(2500 - (System.currentTimeMillis() - now));
+
+        getDatabase().execute("MATCH ()-[r:THEN]->() DELETE r");
+
+        waitFor(300);
+
+        assertSameGraph(getDatabase(), "CREATE (s2:State {name:'Windy'})");
+    }
+
+    @Test
+    public void nodesLeftInPlaceShouldNotBeExpiredWhenRelationshipsAreDeletedAfterExpiryHasBeenExtended() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withNodeExpirationStrategy(DeleteOrphanedNodeOnly.getInstance()));
+
+        long now = System.currentTimeMillis();
+        long oneSecondAgo = now - SECOND;
+        long oneMinuteFromNow = now + MINUTE;
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', expire:" + oneSecondAgo + "})-[:THEN]->(s2:State {name:'Windy'})");
+
+        waitFor(1500 - (System.currentTimeMillis() - now));
+
+        getDatabase().execute("MATCH (s:State {name:'Cloudy'}) SET s.expire = " + oneMinuteFromNow);
+        getDatabase().execute("MATCH ()-[r:THEN]->() DELETE r");
+
+        waitFor(500);
+
+        assertSameGraph(getDatabase(), "CREATE (s1:State {name:'Cloudy', expire:" + oneMinuteFromNow + "}), (s2:State {name:'Windy'})");
+    }
+
+    @Test
+    public void nodesLeftInPlaceShouldBeExpiredTogetherWithTheirLastExpiredRelationship() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withRelationshipExpirationProperty("expire")
+                .withNodeExpirationStrategy(DeleteOrphanedNodeOnly.getInstance()));
+
+        AtomicBoolean deletedTogether = new AtomicBoolean();
+        getDatabase().registerTransactionEventHandler(new TransactionEventHandler.Adapter<Void>() {
+            @Override
+            public void afterCommit(TransactionData data, Void state) {
+                if (data.deletedNodes().iterator().hasNext() && data.deletedRelationships().iterator().hasNext()) {
+                    deletedTogether.set(true);
+                }
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        long oneSecondAgo = now - SECOND;
+        long twoSecondsFromNow = now + 2 * SECOND;
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', expire:" + oneSecondAgo + "})-[:THEN {expire:" + twoSecondsFromNow + "}]->(s2:State {name:'Windy'})");
+
+        waitFor(1000);
+
+        assertSameGraph(getDatabase(), "CREATE (s1:State {name:'Cloudy', expire:" + oneSecondAgo + "})-[:THEN {expire:" + twoSecondsFromNow + "}]->(s2:State {name:'Windy'})");
+
+        waitFor(2500 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (s2:State {name:'Windy'})");
+        assertTrue(deletedTogether.get());
+    }
+
+    @Test
+    public void denseNodesShouldBeDeletedInChunks() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withNodeExpirationStrategy(new DeleteNodeAndRelationshipsInChunks(2)));
+
+        long now = System.currentTimeMillis();
+        long oneSecondAgo = now - SECOND;
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', expire:" + oneSecondAgo + "}), (s2:State {name:'Windy'}) WITH s1, s2 UNWIND range(1, 5) AS i CREATE (s1)-[:THEN]->(s2)");
+
+        waitFor(1000);
+
+        assertSameGraph(getDatabase(), "CREATE (s2:State {name:'Windy'})");
+    }
+
+    @Test
+    public void shouldExpireNodesAndRelationshipsInParallel() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withRelationshipExpirationProperty("expire")
+                .withExpiryThreads(4));
+
+        long now = System.currentTimeMillis();
+        long oneSecondFromNow = now + SECOND;
+
+        getDatabase().execute("CREATE (w:State {name:'Windy'}) WITH w UNWIND range(1, 500) AS i CREATE (:State {name:'Cloudy', expire:" + oneSecondFromNow + "})-[:THEN {expire:" + oneSecondFromNow + "}]->(w)");
+
+        waitFor(2000 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (w:State {name:'Windy'})");
+    }
+
+    @Test
+    public void shouldSkipLockedNodesAndExpireTheRest() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withSkipLockedEntities(true));
+
+        long now = System.currentTimeMillis();
+        long oneSecondFromNow = now + SECOND;
+
+        getDatabase().execute("UNWIND range(1, 10) AS i CREATE (:State {name:'Cloudy', expire:" + oneSecondFromNow + "})");
+        getDatabase().execute("CREATE (:State {name:'Windy', expire:" + oneSecondFromNow + "})");
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            tx.acquireWriteLock(getDatabase().findNode(Label.label("State"), "name", "Windy"));
+
+            waitFor(2000 - (System.currentTimeMillis() - now));
+
+            assertEquals(1L, getDatabase().execute("MATCH (n) RETURN count(n) AS c").columnAs("c").next());
+
+            tx.success();
+        }
+
+        waitFor(1000);
+
+        assertEmpty(getDatabase());
+    }
+
+    @Test
+    public void denseNodesExpiredInTheSameRunShouldShareTheChunk() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withNodeExpirationStrategy(new DeleteNodeAndRelationshipsInChunks(5)));
+
+        AtomicInteger mostDeleted = new AtomicInteger();
+        getDatabase().registerTransactionEventHandler(new TransactionEventHandler.Adapter<Void>() {
+            @Override
+            public void afterCommit(TransactionData data, Void state) {
+                mostDeleted.accumulateAndGet((int) Iterables.count(data.deletedRelationships()), Math::max);
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        long oneSecondAgo = now - SECOND;
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', expire:" + oneSecondAgo + "}), (s2:State {name:'Rainy', expire:" + oneSecondAgo + "}), (s3:State {name:'Windy'}) WITH s1, s2, s3 UNWIND range(1, 8) AS i CREATE (s1)-[:THEN]->(s3), (s2)-[:THEN]->(s3)");
+
+        waitFor(2000);
+
+        assertSameGraph(getDatabase(), "CREATE (s3:State {name:'Windy'})");
+        assertEquals(5, mostDeleted.get());
+    }
+
+    @Test
+    public void denseNodesShouldOnlyHaveTheirNextChunkOfRelationshipsLocked() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withNodeExpirationStrategy(new DeleteNodeAndRelationshipsInChunks(5))
+                .withSkipLockedEntities(true));
+
+        long now = System.currentTimeMillis();
+        long oneSecondFromNow = now + SECOND;
+
+        getDatabase().execute("CREATE (d:State {name:'Cloudy', expire:" + oneSecondFromNow + "}) WITH d UNWIND range(1, 20) AS i CREATE (d)-[:THEN]->(:State {name:'Windy'})");
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node dense = getDatabase().findNode(Label.label("State"), "name", "Cloudy");
+
+            Relationship last = null;
+            for (Relationship r : dense.getRelationships()) {
+                last = r;
+            }
+
+            //the neighbour at the end of the last chunk
+            tx.acquireWriteLock(last.getOtherNode(dense));
+
+            waitFor(2000 - (System.currentTimeMillis() - now));
+
+            assertEquals(5, dense.getDegree());
+
+            tx.success();
+        }
+
+        //the node is looked at again after the backoff of locked entities
+        waitFor(3000);
+
+        assertEquals(20L, getDatabase().execute("MATCH (n) RETURN count(n) AS c").columnAs("c").next());
+    }
+
+    @Test
+    public void shouldIndexExistingNodesAndRelationshipsInParallelOnInitialization() {
+        long now = System.currentTimeMillis();
+        long oneSecondFromNow = now + SECOND;
+
+        getDatabase().execute("CREATE (w:State {name:'Windy'}) WITH w UNWIND range(1, 100) AS i CREATE (:State {name:'Cloudy', expire:" + oneSecondFromNow + "})-[:THEN {expire:" + oneSecondFromNow + "}]->(w)");
+
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withRelationshipExpirationProperty("expire")
+                .withInitializationThreads(4)
+                .withInitializationBatchSize(7));
+
+        waitFor(2000 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (w:State {name:'Windy'})");
+    }
+
+    @Test
+    public void interruptedInitializationShouldResumeWhenModuleStarts() {
+        long oneMinuteFromNow = System.currentTimeMillis() + MINUTE;
+
+        getDatabase().execute("UNWIND range(1, 10) AS i CREATE (:State {name:'Cloudy', expire:" + oneMinuteFromNow + "})");
+
+        long sixthId;
+        try (Transaction tx = getDatabase().beginTx()) {
+            sixthId = (long) getDatabase().execute("MATCH (n:State) RETURN id(n) AS id ORDER BY id SKIP 5 LIMIT 1").next().get("id");
+            tx.success();
+        }
+
+        ExpirationModule module = new ExpirationModule("EXP", getDatabase(), ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire"));
+
+        //a previous initialization got as far as the sixth node before the database was shut down
+        module.checkpoint(getDatabase()).save(ExpirationModule.NODES_PHASE, sixthId);
+
+        //the runtime does not call initialize() again, starting the module is enough
+        module.start(getDatabase());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(5, countNodesInIndex());
+            tx.success();
+        }
+
+        assertFalse(module.checkpoint(getDatabase()).exists());
+
+        module.shutdown();
+    }
+
+    @Test
+    public void shouldOnlyIndexExistingNodesWithInitializationLabelsAndRelationshipsWithInitializationTypes() {
+        long now = System.currentTimeMillis();
+        long oneSecondFromNow = now + SECOND;
+
+        getDatabase().execute("CREATE (w:State {name:'Windy'}) WITH w UNWIND range(1, 10) AS i CREATE (:State {name:'Cloudy', expire:" + oneSecondFromNow + "})-[:THEN {expire:" + oneSecondFromNow + "}]->(w)");
+        getDatabase().execute("CREATE (:Other {name:'Sunny', expire:" + oneSecondFromNow + "})-[:NEXT {expire:" + oneSecondFromNow + "}]->(:State {name:'Rainy'})");
+
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withRelationshipExpirationProperty("expire")
+                .withInitializationLabels(Collections.singleton("State"))
+                .withInitializationRelationshipTypes(Collections.singleton("THEN"))
+                .withInitializationBatchSize(3));
+
+        waitFor(2000 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (w:State {name:'Windy'}), (:Other {name:'Sunny', expire:" + oneSecondFromNow + "})-[:NEXT {expire:" + oneSecondFromNow + "}]->(:State {name:'Rainy'})");
+    }
+
+    @Test
+    public void shouldIndexExistingNodesAndRelationshipsInBackgroundAtCappedRate() {
+        long now = System.currentTimeMillis();
+        long oneSecondFromNow = now + SECOND;
+
+        getDatabase().execute("CREATE (w:State {name:'Windy'}) WITH w UNWIND range(1, 100) AS i CREATE (:State {name:'Cloudy', expire:" + oneSecondFromNow + "})-[:THEN {expire:" + oneSecondFromNow + "}]->(w)");
+
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withRelationshipExpirationProperty("expire")
+                .withBackgroundInitialization(true)
+                .withInitializationRate(100)
+                .withInitializationBatchSize(10));
+
+        //startup does not wait for initialization, which looks at relationships for about 1 s before it gets to nodes
+        assertEquals(0, countNodesInIndex());
+
+        waitFor(4000 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (w:State {name:'Windy'})");
+    }
+
+    @Test
+    public void expiryDateChangedDuringBackgroundInitializationShouldNotBeIndexedUnderOldDate() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        long twoSecondsFromNow = now + 2 * SECOND;
+        long oneMinuteFromNow = now + MINUTE;
+
+        getDatabase().execute("CREATE (:State {name:'Cloudy', expire:" + twoSecondsFromNow + "})");
+
+        CountDownLatch changed = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+
+        //changes the expiry date, but only commits once initialization has had the chance to look at the node
+        Thread writer = new Thread(() -> {
+            try (Transaction tx = getDatabase().beginTx()) {
+                getDatabase().findNode(Label.label("State"), "name", "Cloudy").setProperty("expire", oneMinuteFromNow);
+                changed.countDown();
+                commit.await();
+                tx.success();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        changed.await();
+
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withBackgroundInitialization(true));
+
+        waitFor(500);
+        commit.countDown();
+        writer.join();
+
+        waitFor(3000 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (:State {name:'Cloudy', expire:" + oneMinuteFromNow + "})");
+        assertEquals(1, countNodesInIndex());
+    }
+
+    @Test
+    public void shouldReconcileIndexWithGraph() {
+        ExpirationModule module = new ExpirationModule("EXP", getDatabase(), ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withReconciliationRate(10000));
+
+        GraphAwareRuntime runtime = createRuntime();
+        runtime.registerModule(module);
+        runtime.start();
+        runtime.waitUntilStarted();
+
+        long now = System.currentTimeMillis();
+        long twoSecondsFromNow = now + 2 * SECOND;
+
+        getDatabase().execute("CREATE (:State {name:'Cloudy', expire:" + twoSecondsFromNow + "}), (:State {name:'Windy', expire:" + twoSecondsFromNow + "}), (:State {name:'Sunny'})");
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Index<Node> index = getDatabase().index().forNodes("nodeExpirationIndex");
+            index.remove(getDatabase().findNode(Label.label("State"), "name", "Cloudy"));
+            index.add(getDatabase().findNode(Label.label("State"), "name", "Sunny"), "_expire", new ValueContext(now + 10 * MINUTE).indexNumeric());
+            tx.success();
+        }
+
+        waitFor(3000 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (:State {name:'Sunny'})");
+        assertEquals(0, countNodesInIndex());
+        assertEquals(1, module.getStatistics().getMissing());
+        assertEquals(1, module.getStatistics().getStale());
+    }
+
+    @Test
+    public void shouldRemoveEntriesOfExcludedEntitiesWhenReconciling() {
+        ExpirationModule module = new ExpirationModule("EXP", getDatabase(), ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .with(CompositeNodeInclusionPolicy.of(new SpelNodeInclusionPolicy("hasLabel('State')")))
+                .withReconciliationRate(10000));
+
+        GraphAwareRuntime runtime = createRuntime();
+        runtime.registerModule(module);
+        runtime.start();
+        runtime.waitUntilStarted();
+
+        long now = System.currentTimeMillis();
+        long tenMinutesFromNow = now + 10 * MINUTE;
+
+        getDatabase().execute("CREATE (:State {name:'Cloudy', expire:" + tenMinutesFromNow + "}), (:Other {name:'Windy', expire:" + tenMinutesFromNow + "})");
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            getDatabase().index().forNodes("nodeExpirationIndex").add(getDatabase().findNode(Label.label("Other"), "name", "Windy"), "_expire", new ValueContext(tenMinutesFromNow).indexNumeric());
+            tx.success();
+        }
+
+        waitFor(3000 - (System.currentTimeMillis() - now));
+
+        assertEquals(1, countNodesInIndex());
+        assertEquals(0, module.getStatistics().getMissing());
+        assertEquals(1, module.getStatistics().getStale());
+    }
+
+    @Test
+    public void shouldExpireInLockOrderAndCountExpiredEntities() {
+        ExpirationModule module = new ExpirationModule("EXP", getDatabase(), ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withRelationshipExpirationProperty("expire")
+                .withLockOrdering(true));
+
+        GraphAwareRuntime runtime = createRuntime();
+        runtime.registerModule(module);
+        runtime.start();
+        runtime.waitUntilStarted();
+
+        long now = System.currentTimeMillis();
+        long oneSecondFromNow = now + SECOND;
+
+        getDatabase().execute("CREATE (w:State {name:'Windy'}) WITH w UNWIND range(1, 50) AS i CREATE (:State {name:'Cloudy', expire:" + oneSecondFromNow + "})<-[:THEN {expire:" + oneSecondFromNow + "}]-(w)");
+
+        waitFor(2000 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (w:State {name:'Windy'})");
+        assertEquals(100, module.getStatistics().getExpired());
+        assertEquals(0, module.getStatistics().getDeadlocks());
+    }
+
+    @Test
+    public void shouldExpireNodesOnDeadline() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withDeadlineScheduling(true));
+
+        long now = System.currentTimeMillis();
+        long threeSecondsFromNow = now + 3 * SECOND;
+        long halfASecondFromNow = now + 500;
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', expire:" + threeSecondsFromNow + "})");
+
+        waitFor(200);
+
+        getDatabase().execute("CREATE (s2:State {name:'Windy', expire:" + halfASecondFromNow + "})");
+
+        waitFor(900 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (s1:State {name:'Cloudy', expire:" + threeSecondsFromNow + "})");
+
+        waitFor(3400 - (System.currentTimeMillis() - now));
+
+        assertEmpty(getDatabase());
+    }
+
+    @Test
+    public void shouldExpireNodesAndRelationshipsUsingTimingWheel() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withRelationshipTtlProperty("ttl")
+                .withIndexerType(IndexerType.TIMING_WHEEL));
+
+        long now = System.currentTimeMillis();
+        long twoSecondsFromNow = now + 2 * SECOND;
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', expire:" + twoSecondsFromNow + "})-[:THEN {ttl:1000}]->(s2:State {name:'Windy'})");
+
+        waitFor(1200 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (s1:State {name:'Cloudy', expire:" + twoSecondsFromNow + "}), (s2:State {name:'Windy'})");
+
+        waitFor(2200 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (s2:State {name:'Windy'})");
+    }
+
+    @Test
+    public void reschedulingShouldBeRolledBackWithExpiryTransaction() {
+        long now = System.currentTimeMillis();
+        long twoSecondsAgo = now - 2 * SECOND;
+        long oneSecondAgo = now - SECOND;
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', expire:" + twoSecondsAgo + "}), (s2:State {name:'Windy', expire:" + oneSecondAgo + "})");
+
+        ExpirationModule module = new ExpirationModule("EXP", getDatabase(), ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withIndexerType(IndexerType.TIMING_WHEEL)
+                .withNodeExpirationStrategy(node -> {
+                    if ("Windy".equals(node.getProperty("name"))) {
+                        throw new IllegalStateException("Failing on purpose");
+                    }
+                }));
+
+        module.start(getDatabase());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            module.expire(ExpirationContext.initial());
+            tx.success();
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+
+        //Cloudy has been left in place, but not rescheduled, as the transaction has rolled back
+        assertEquals(twoSecondsAgo, module.nextExpiry(ExpirationContext.initial()));
+
+        module.shutdown();
+    }
+
+    @Test
+    public void nodesExpiredTogetherWithTheirLastRelationshipShouldBePassedOverInTheSameRun() {
+        long now = System.currentTimeMillis();
+        long oneSecondAgo = now - SECOND;
+        long halfASecondFromNow = now + 500;
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', expire:" + oneSecondAgo + "})-[:THEN {expire:" + halfASecondFromNow + "}]->(s2:State {name:'Windy'})");
+
+        ExpirationModule module = leftInPlaceModule();
+
+        ExpirationContext context;
+        try (Transaction tx = getDatabase().beginTx()) {
+            context = module.expire(ExpirationContext.initial());
+            tx.success();
+        }
+
+        assertSameGraph(getDatabase(), "CREATE (s1:State {name:'Cloudy', expire:" + oneSecondAgo + "})-[:THEN {expire:" + halfASecondFromNow + "}]->(s2:State {name:'Windy'})");
+
+        //both the relationship and the rescheduled node are due now
+        waitFor(1500 - (System.currentTimeMillis() - now));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            module.expire(context);
+            tx.success();
+        }
+
+        assertSameGraph(getDatabase(), "CREATE (s2:State {name:'Windy'})");
+
+        module.shutdown();
+    }
+
+    @Test
+    public void nodesLeftInPlaceShouldNotBeExpiredWithTheirLastRelationshipAfterExpiryHasBeenExtended() {
+        long now = System.currentTimeMillis();
+        long oneSecondAgo = now - SECOND;
+        long halfASecondFromNow = now + 500;
+        long oneMinuteFromNow = now + MINUTE;
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', expire:" + oneSecondAgo + "})-[:THEN {expire:" + halfASecondFromNow + "}]->(s2:State {name:'Windy'})");
+
+        ExpirationModule module = leftInPlaceModule();
+
+        ExpirationContext context;
+        try (Transaction tx = getDatabase().beginTx()) {
+            context = module.expire(ExpirationContext.initial());
+            tx.success();
+        }
+
+        //no runtime, so the module does not see this change and only the date itself can tell
+        getDatabase().execute("MATCH (s:State {name:'Cloudy'}) SET s.expire = " + oneMinuteFromNow);
+
+        waitFor(700 - (System.currentTimeMillis() - now));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            module.expire(context);
+            tx.success();
+        }
+
+        assertSameGraph(getDatabase(), "CREATE (s1:State {name:'Cloudy', expire:" + oneMinuteFromNow + "}), (s2:State {name:'Windy'})");
+
+        module.shutdown();
+    }
+
+    private ExpirationModule leftInPlaceModule() {
+        ExpirationModule module = new ExpirationModule("EXP", getDatabase(), ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withRelationshipExpirationProperty("expire")
+                .withIndexerType(IndexerType.TIMING_WHEEL)
+                .withNodeExpirationStrategy(DeleteOrphanedNodeOnly.getInstance()));
+
+        module.start(getDatabase());
+
+        return module;
+    }
+
+    @Test
+    public void runShouldStopAtTimeLimitAndKeepWatermark() {
+        long oneSecondAgo = System.currentTimeMillis() - SECOND;
+
+        getDatabase().execute("UNWIND range(1, 20) AS i CREATE (:State {name:'Cloudy', expire:" + oneSecondAgo + "})");
+
+        ExpirationModule module = new ExpirationModule("EXP", getDatabase(), ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withIndexerType(IndexerType.TIMING_WHEEL)
+                .withMaxTickMillis(100)
+                .withNodeExpirationStrategy(node -> {
+                    waitFor(20);
+                    node.delete();
+                }));
+
+        module.start(getDatabase());
+
+        ExpirationContext context;
+        try (Transaction tx = getDatabase().beginTx()) {
+            context = module.expire(ExpirationContext.initial());
+            tx.success();
+        }
+
+        //not everything could be expired within the time limit, so the next run has to start from the same place
+        assertEquals(0, context.getNodeWatermark());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            long remaining = (long) getDatabase().execute("MATCH (n:State) RETURN count(n) AS c").next().get("c");
+            assertTrue(remaining > 0 && remaining < 20);
+            tx.success();
+        }
+
+        module.shutdown();
+    }
+
+    @Test
+    public void shouldBeAbleToUpdateAndRemoveTtlUsingTimingWheel() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeTtlProperty("ttl")
+                .withIndexerType(IndexerType.TIMING_WHEEL));
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', ttl:1000}), (s2:State {name:'Windy', ttl:1000})");
+
+        getDatabase().execute("MATCH (n:State {name:'Cloudy'}) SET n.ttl=2000");
+        getDatabase().execute("MATCH (n:State {name:'Windy'}) REMOVE n.ttl");
+
+        waitFor(1200);
+
+        assertSameGraph(getDatabase(), "CREATE (s1:State {name:'Cloudy', ttl:2000}), (s2:State {name:'Windy'})");
+
+        waitFor(1200);
+
+        assertSameGraph(getDatabase(), "CREATE (s2:State {name:'Windy'})");
+    }
+
+    @Test
+    public void timingWheelShouldBeBuiltFromExistingData() {
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', ttl:1000})-[:THEN {ttl:1000}]->(s2:State {name:'Windy',ttl:1000})");
+
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeTtlProperty("ttl")
+                .withRelationshipTtlProperty("ttl")
+                .withIndexerType(IndexerType.TIMING_WHEEL));
+
+        waitFor(1100);
+
+        assertEmpty(getDatabase());
+    }
+
+    @Test
+    public void shouldExpireNodesAndRelationshipsUsingOffHeapQueue() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withRelationshipTtlProperty("ttl")
+                .withIndexerType(IndexerType.OFF_HEAP));
+
+        long now = System.currentTimeMillis();
+        long twoSecondsFromNow = now + 2 * SECOND;
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', expire:" + twoSecondsFromNow + "})-[:THEN {ttl:1000}]->(s2:State {name:'Windy'})");
+
+        waitFor(1200 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (s1:State {name:'Cloudy', expire:" + twoSecondsFromNow + "}), (s2:State {name:'Windy'})");
+
+        waitFor(2200 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (s2:State {name:'Windy'})");
+    }
+
+    @Test
+    public void deadlineSchedulingShouldBackOffWhileEntitiesThatAreDueAreLocked() {
+        ExpirationModule module = new ExpirationModule("EXP", getDatabase(), ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withIndexerType(IndexerType.SCHEMA)
+                .withSkipLockedEntities(true)
+                .withDeadlineScheduling(true));
+
+        GraphAwareRuntime runtime = createRuntime();
+        runtime.registerModule(module);
+        runtime.start();
+        runtime.waitUntilStarted();
+
+        long now = System.currentTimeMillis();
+        long halfASecondFromNow = now + 500;
+
+        getDatabase().execute("CREATE (:State {name:'Cloudy', expire:" + halfASecondFromNow + "})");
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            tx.acquireWriteLock(getDatabase().findNode(Label.label("State"), "name", "Cloudy"));
+
+            waitFor(600 - (System.currentTimeMillis() - now));
+            long runs = module.getStatistics().getRuns();
+
+            waitFor(2000 - (System.currentTimeMillis() - now));
+
+            //without backing off, the scheduler would run every 10 ms
+            assertTrue(module.getStatistics().getRuns() - runs < 20);
+
+            tx.success();
+        }
+
+        waitFor(1500);
+
+        assertEmpty(getDatabase());
+    }
+
+    @Test
+    public void shouldExpireNodesUsingSchemaIndex() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeTtlProperty("ttl")
+                .withRelationshipTtlProperty("ttl")
+                .withIndexerType(IndexerType.SCHEMA));
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', ttl:1000})-[:THEN {ttl:500}]->(s2:State {name:'Windy', ttl:1000}), (s3:State {name:'Sunny', ttl:1000})");
+        getDatabase().execute("MATCH (n:State {name:'Sunny'}) REMOVE n.ttl");
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(2L, getDatabase().execute("MATCH (n:nodeExpirationIndex) WHERE exists(n._expire) RETURN count(n) AS c").columnAs("c").next());
+            assertEquals(1, countRelationshipsInIndex());
+            tx.success();
+        }
+
+        waitFor(1200);
+
+        assertSameGraph(getDatabase(), "CREATE (s3:State {name:'Sunny'})");
+    }
+
+    @Test
+    public void shouldExpireNodesAndRelationshipsUsingBucketedIndex() {
+        bootstrap(ExpirationConfiguration.defaultConfiguration()
+                .withNodeExpirationProperty("expire")
+                .withRelationshipTtlProperty("ttl")
+                .withIndexerType(IndexerType.BUCKETED));
+
+        long now = System.currentTimeMillis();
+        long twoSecondsFromNow = now + 2 * SECOND;
+        long tenMinutesAgo = now - 10 * MINUTE;
+
+        getDatabase().execute("CREATE (s1:State {name:'Cloudy', expire:" + twoSecondsFromNow + "})-[:THEN {ttl:1000}]->(s2:State {name:'Windy'})");
+
+        waitFor(1200 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (s1:State {name:'Cloudy', expire:" + twoSecondsFromNow + "}), (s2:State {name:'Windy'})");
+
+        waitFor(2200 - (System.currentTimeMillis() - now));
+
+        assertSameGraph(getDatabase(), "CREATE (s2:State {name:'Windy'})");
+
+        getDatabase().execute("CREATE (s3:State {name:'Sunny', expire:" + tenMinutesAgo + "})");
+
+        waitFor(300);
+
+        assertSameGraph(getDatabase(), "CREATE (s2:State {name:'Windy'})");
+    }
+
     @Test(expected = IllegalStateException.class)
     public void shouldFailToStartWithInvalidConfig() {
         bootstrap(ExpirationConfiguration.defaultConfiguration());
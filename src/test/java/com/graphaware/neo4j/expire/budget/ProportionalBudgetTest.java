@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.budget;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProportionalBudgetTest {
+
+    private final BudgetPolicy policy = ProportionalBudget.getInstance();
+
+    @Test
+    public void shouldSplitBudgetInProportionToBacklogs() {
+        assertEquals(500, policy.relationshipBudget(1000, new Backlog(1001, 0), new Backlog(1001, 0)));
+        assertEquals(750, policy.relationshipBudget(1000, new Backlog(900, 0), new Backlog(300, 0)));
+    }
+
+    @Test
+    public void shouldFavourBacklogThatHasBeenOverdueLonger() {
+        assertEquals(200, policy.relationshipBudget(1000, new Backlog(1001, 0), new Backlog(1001, 3 * 60_000)));
+    }
+
+    @Test
+    public void shouldCapWeightOfLongOverdueBacklog() {
+        assertEquals(984, policy.relationshipBudget(1000, new Backlog(1001, 60 * 60_000), new Backlog(1001, 0)));
+        assertEquals(984, policy.relationshipBudget(1000, new Backlog(1001, 50L * 365 * 24 * 60 * 60_000), new Backlog(1001, 0)));
+    }
+
+    @Test
+    public void shouldNotStarveSmallBacklog() {
+        assertEquals(999, policy.relationshipBudget(1000, new Backlog(1001, 60 * 60_000), new Backlog(1, 0)));
+        assertEquals(1, policy.relationshipBudget(1000, new Backlog(1, 0), new Backlog(1001, 60 * 60_000)));
+    }
+
+    @Test
+    public void shouldGiveUnusedBudgetToOtherBacklog() {
+        assertEquals(100, policy.relationshipBudget(1000, new Backlog(100, 0), new Backlog(100, 0)));
+        assertEquals(909, policy.relationshipBudget(1000, new Backlog(1001, 0), new Backlog(100, 0)));
+        assertEquals(0, policy.relationshipBudget(1000, new Backlog(0, 0), new Backlog(1001, 0)));
+        assertEquals(1000, policy.relationshipBudget(1000, new Backlog(1001, 0), new Backlog(0, 0)));
+    }
+}
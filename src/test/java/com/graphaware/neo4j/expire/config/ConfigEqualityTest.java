@@ -19,6 +19,7 @@ package com.graphaware.neo4j.expire.config;
 import com.graphaware.common.policy.inclusion.composite.CompositeNodeInclusionPolicy;
 import com.graphaware.common.policy.inclusion.spel.SpelNodeInclusionPolicy;
 import com.graphaware.common.serialize.Serializer;
+import com.graphaware.neo4j.expire.strategy.DeleteNodeAndRelationshipsInChunks;
 import org.junit.Test;
 
 import static org.junit.Assert.assertFalse;
@@ -32,8 +33,10 @@ public class ConfigEqualityTest {
         assertTrue(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").withNodeExpirationIndex("bla").equals(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").withNodeExpirationIndex("bla")));
         assertTrue(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").with(CompositeNodeInclusionPolicy.of(new SpelNodeInclusionPolicy("hasLabel('Test')"))).equals(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").with(CompositeNodeInclusionPolicy.of(new SpelNodeInclusionPolicy("hasLabel('Test')")))));
         assertTrue(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").with(CompositeNodeInclusionPolicy.of(new SpelNodeInclusionPolicy("hasLabel('Test')"))).equals(Serializer.fromByteArray(Serializer.toByteArray(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").with(CompositeNodeInclusionPolicy.of(new SpelNodeInclusionPolicy("hasLabel('Test')")))))));
+        assertTrue(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").withNodeExpirationStrategy(new DeleteNodeAndRelationshipsInChunks(5)).equals(Serializer.fromByteArray(Serializer.toByteArray(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").withNodeExpirationStrategy(new DeleteNodeAndRelationshipsInChunks(5))))));
 
         assertFalse(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").equals(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("different")));
+        assertFalse(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").withNodeExpirationStrategy(new DeleteNodeAndRelationshipsInChunks(5)).equals(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").withNodeExpirationStrategy(new DeleteNodeAndRelationshipsInChunks(6))));
         assertFalse(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").equals(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").withRelationshipExpirationProperty("ttl")));
         assertFalse(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").withNodeExpirationIndex("bla").equals(ExpirationConfiguration.defaultConfiguration().withNodeTtlProperty("ttl").withRelationshipExpirationIndex("bla")));
     }
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExpiryDatesTest {
+
+    @Test
+    public void shouldConvertNumericValuesToExpiryDates() {
+        assertEquals(1000, ExpiryDates.expiryDate(1000L));
+        assertEquals(1000, ExpiryDates.expiryDate(1000));
+        assertEquals(1000, ExpiryDates.expiryDate("1000"));
+        assertEquals(-5, ExpiryDates.expiryDate("-5"));
+    }
+
+    @Test
+    public void shouldConvertTemporalValuesToExpiryDates() {
+        assertEquals(1_500_000_000_123L, ExpiryDates.expiryDate(ZonedDateTime.of(2017, 7, 14, 3, 40, 0, 123_000_000, ZoneId.of("Europe/London"))));
+        assertEquals(1_500_000_000_123L, ExpiryDates.expiryDate(LocalDateTime.of(2017, 7, 14, 2, 40, 0, 123_456_789)));
+        assertEquals(86_400_000L, ExpiryDates.expiryDate(LocalDate.of(1970, 1, 2)));
+    }
+
+    @Test
+    public void shouldReturnNoneForMissingOrInvalidExpiryDates() {
+        assertEquals(ExpiryDates.NONE, ExpiryDates.expiryDate(null));
+        assertEquals(ExpiryDates.NONE, ExpiryDates.expiryDate("tomorrow"));
+        assertEquals(ExpiryDates.NONE, ExpiryDates.expiryDate(1.5));
+        assertEquals(ExpiryDates.NONE, ExpiryDates.expiryDate(Duration.ofSeconds(1)));
+    }
+
+    @Test
+    public void shouldConvertTtlsToExpiryDates() {
+        assertEquals(1500, ExpiryDates.expiryDateFromTtl(500, 1000));
+        assertEquals(1500, ExpiryDates.expiryDateFromTtl("500", 1000));
+        assertEquals(3000, ExpiryDates.expiryDateFromTtl(Duration.ofSeconds(2), 1000));
+        assertEquals(31 * 86_400_000L, ExpiryDates.expiryDateFromTtl(Period.ofMonths(1), 0));
+    }
+
+    @Test
+    public void shouldReturnNoneForMissingOrInvalidTtls() {
+        assertEquals(ExpiryDates.NONE, ExpiryDates.expiryDateFromTtl(null, 1000));
+        assertEquals(ExpiryDates.NONE, ExpiryDates.expiryDateFromTtl("soon", 1000));
+        assertEquals(ExpiryDates.NONE, ExpiryDates.expiryDateFromTtl(2.5, 1000));
+    }
+}
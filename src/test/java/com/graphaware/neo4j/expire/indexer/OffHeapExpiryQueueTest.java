@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapExpiryQueueTest {
+
+    private static final long NOW = 1_500_000_000_000L;
+
+    @Test
+    public void shouldFindEarliestScheduledEntry() {
+        OffHeapExpiryQueue queue = new OffHeapExpiryQueue();
+
+        assertEquals(Long.MAX_VALUE, queue.earliest());
+
+        queue.schedule(1, NOW + 1000);
+        queue.schedule(2, NOW + 50_000_000);
+        queue.schedule(3, NOW + 500);
+
+        assertEquals(NOW + 500, queue.earliest());
+
+        queue.cancel(3);
+        assertEquals(NOW + 1000, queue.earliest());
+
+        queue.schedule(1, NOW + 100_000_000);
+        assertEquals(NOW + 50_000_000, queue.earliest());
+    }
+
+    @Test
+    public void shouldReturnEntriesOnceTheyAreDue() {
+        OffHeapExpiryQueue queue = new OffHeapExpiryQueue();
+
+        queue.schedule(1, NOW + 1000);
+        queue.schedule(2, NOW + 5000);
+        queue.schedule(3, NOW - 10);
+
+        assertArrayEquals(new long[]{3}, queue.due(NOW));
+        assertArrayEquals(new long[]{3}, queue.due(NOW + 999));
+        assertArrayEquals(new long[]{3, 1}, queue.due(NOW + 1000));
+        assertArrayEquals(new long[]{3, 1, 2}, queue.due(NOW + 10000));
+    }
+
+    @Test
+    public void shouldNotReturnCancelledOrRescheduledEntries() {
+        OffHeapExpiryQueue queue = new OffHeapExpiryQueue();
+
+        queue.schedule(1, NOW + 1000);
+        queue.schedule(2, NOW - 1000);
+        queue.schedule(3, NOW);
+        queue.schedule(3, NOW + 3000);
+
+        queue.cancel(1);
+        queue.cancel(2);
+
+        assertArrayEquals(new long[0], queue.due(NOW + 2000));
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.heapSize());
+
+        queue.cancel(3);
+        queue.schedule(3, NOW + 3000);
+        assertArrayEquals(new long[]{3}, queue.due(NOW + 3000));
+    }
+
+    @Test
+    public void shouldGrowBeyondInitialCapacity() {
+        OffHeapExpiryQueue queue = new OffHeapExpiryQueue();
+
+        for (int i = 0; i < 10_000; i++) {
+            queue.schedule(i, NOW + 10_000 - i);
+        }
+
+        long[] due = queue.due(NOW + 5000);
+        assertEquals(5000, due.length);
+        assertEquals(9999, due[0]);
+        assertEquals(5000, due[4999]);
+        assertEquals(10_000, queue.size());
+    }
+
+    @Test
+    public void heapShouldStayBoundedWhenEntriesAreRescheduledRepeatedly() {
+        OffHeapExpiryQueue queue = new OffHeapExpiryQueue();
+
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 10_000; i++) {
+                queue.schedule(i, NOW + round * 1000 + i);
+                assertTrue(queue.heapSize() <= 2 * queue.size() + 1);
+            }
+        }
+
+        assertEquals(10_000, queue.size());
+        assertEquals(NOW + 49_000, queue.earliest());
+
+        long[] due = queue.due(NOW + 49_000 + 4999);
+        assertEquals(5000, due.length);
+        assertEquals(0, due[0]);
+        assertEquals(4999, due[4999]);
+    }
+
+    @Test
+    public void shouldWriteAndReadSnapshot() throws IOException {
+        Path file = Files.createTempFile("expiry", ".snapshot");
+
+        try {
+            OffHeapExpiryQueue queue = new OffHeapExpiryQueue();
+            queue.schedule(1, NOW + 1000);
+            queue.schedule(2, NOW + 2000);
+            queue.schedule(3, NOW + 3000);
+            queue.cancel(2);
+            queue.writeSnapshot(file);
+
+            OffHeapExpiryQueue restored = new OffHeapExpiryQueue();
+            assertTrue(restored.readSnapshot(file));
+            assertEquals(2, restored.size());
+            assertEquals(NOW + 3000, restored.expiryOf(3));
+            assertArrayEquals(new long[]{1, 3}, restored.due(NOW + 5000));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldWriteAndReadSnapshotLargerThanOneChunk() throws IOException {
+        Path file = Files.createTempFile("expiry", ".snapshot");
+
+        try {
+            OffHeapExpiryQueue queue = new OffHeapExpiryQueue();
+            for (int i = 0; i < 10_000; i++) {
+                queue.schedule(i, NOW + 10_000 - i);
+            }
+            queue.writeSnapshot(file);
+
+            assertEquals((2 + 10_000 * 2) * Long.BYTES, Files.size(file));
+
+            OffHeapExpiryQueue restored = new OffHeapExpiryQueue();
+            assertTrue(restored.readSnapshot(file));
+            assertEquals(10_000, restored.size());
+            assertEquals(NOW + 1, restored.earliest());
+            assertEquals(NOW + 10_000, restored.expiryOf(0));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldRejectInvalidSnapshot() throws IOException {
+        Path file = Files.createTempFile("expiry", ".snapshot");
+
+        try {
+            Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+
+            OffHeapExpiryQueue queue = new OffHeapExpiryQueue();
+            queue.schedule(1, NOW);
+            assertFalse(queue.readSnapshot(file));
+            assertEquals(0, queue.size());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldLimitNumberOfDueEntries() {
+        OffHeapExpiryQueue queue = new OffHeapExpiryQueue();
+
+        queue.schedule(1, NOW - 100);
+        queue.schedule(2, NOW - 300);
+        queue.schedule(3, NOW - 200);
+
+        assertArrayEquals(new long[]{2, 3}, queue.due(NOW, 2));
+        assertArrayEquals(new long[0], queue.due(NOW, 0));
+        assertArrayEquals(new long[]{2, 3, 1}, queue.due(NOW, 5));
+        assertEquals(3, queue.heapSize());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2013-2020 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.neo4j.expire.indexer;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TimingWheelTest {
+
+    private static final long NOW = 1_500_000_000_000L;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void shouldFindEarliestScheduledEntry() {
+        TimingWheel wheel = new TimingWheel(100, NOW);
+
+        assertEquals(Long.MAX_VALUE, wheel.earliest());
+
+        wheel.schedule(1, NOW + 1000);
+        wheel.schedule(2, NOW + 50_000_000);
+        wheel.schedule(3, NOW + 500);
+
+        assertEquals(NOW + 500, wheel.earliest());
+
+        wheel.cancel(3);
+        assertEquals(NOW + 1000, wheel.earliest());
+
+        wheel.schedule(1, NOW + 100_000_000);
+        assertEquals(NOW + 50_000_000, wheel.earliest());
+    }
+
+    @Test
+    public void shouldRepairEarliestEntryAcrossLevelsAsTimeAdvances() {
+        TimingWheel wheel = new TimingWheel(100, NOW);
+        Random random = new Random(42);
+        Map<Long, Long> expected = new HashMap<>();
+        long now = NOW;
+
+        for (int round = 0; round < 2000; round++) {
+            long id = random.nextInt(200);
+
+            if (random.nextInt(4) == 0) {
+                wheel.cancel(id);
+                expected.remove(id);
+            } else {
+                long expiry = now + (long) (Math.pow(10, random.nextInt(12)) * random.nextDouble()) - 50;
+                wheel.schedule(id, expiry);
+                expected.put(id, expiry);
+            }
+
+            if (random.nextInt(10) == 0) {
+                now += random.nextInt(1_000_000);
+                wheel.advance(now);
+            }
+
+            assertEquals(expected.values().stream().mapToLong(Long::longValue).min().orElse(Long.MAX_VALUE), wheel.earliest());
+        }
+    }
+
+    @Test
+    public void shouldReturnEntriesOnceTheyAreDue() {
+        TimingWheel wheel = new TimingWheel(100, NOW);
+
+        wheel.schedule(1, NOW + 1000);
+        wheel.schedule(2, NOW + 5000);
+        wheel.schedule(3, NOW - 10);
+
+        wheel.advance(NOW);
+        assertArrayEquals(new long[]{3}, wheel.due(NOW));
+
+        wheel.advance(NOW + 999);
+        assertArrayEquals(new long[]{3}, wheel.due(NOW + 999));
+
+        wheel.advance(NOW + 1000);
+        assertArrayEquals(new long[]{3, 1}, wheel.due(NOW + 1000));
+
+        wheel.advance(NOW + 10000);
+        assertArrayEquals(new long[]{3, 1, 2}, wheel.due(NOW + 10000));
+    }
+
+    @Test
+    public void shouldNotReturnCancelledEntries() {
+        TimingWheel wheel = new TimingWheel(100, NOW);
+
+        wheel.schedule(1, NOW + 1000);
+        wheel.schedule(2, NOW - 1000);
+
+        wheel.cancel(1);
+        wheel.cancel(2);
+
+        wheel.advance(NOW + 2000);
+        assertArrayEquals(new long[0], wheel.due(NOW + 2000));
+        assertEquals(0, wheel.size());
+        assertEquals(0, wheel.dueSize());
+    }
+
+    @Test
+    public void shouldHonourRescheduledEntries() {
+        TimingWheel wheel = new TimingWheel(100, NOW);
+
+        wheel.schedule(1, NOW + 1000);
+        wheel.schedule(1, NOW + 3000);
+
+        wheel.advance(NOW + 2000);
+        assertArrayEquals(new long[0], wheel.due(NOW + 2000));
+
+        wheel.advance(NOW + 3000);
+        assertArrayEquals(new long[]{1}, wheel.due(NOW + 3000));
+
+        wheel.cancel(1);
+        wheel.schedule(1, NOW + 3000);
+        assertArrayEquals(new long[]{1}, wheel.due(NOW + 3000));
+    }
+
+    @Test
+    public void shouldCascadeEntriesFromHigherLevels() {
+        TimingWheel wheel = new TimingWheel(100, NOW);
+
+        wheel.schedule(1, NOW + DAY);
+        wheel.schedule(2, NOW + 365 * DAY);
+        wheel.schedule(3, NOW + 10 * 365 * DAY);
+
+        wheel.advance(NOW + DAY - 1);
+        assertArrayEquals(new long[0], wheel.due(NOW + DAY - 1));
+
+        wheel.advance(NOW + DAY);
+        assertArrayEquals(new long[]{1}, wheel.due(NOW + DAY));
+
+        wheel.cancel(1);
+
+        wheel.advance(NOW + 365 * DAY);
+        assertArrayEquals(new long[]{2}, wheel.due(NOW + 365 * DAY));
+
+        wheel.cancel(2);
+
+        wheel.advance(NOW + 10 * 365 * DAY - 1);
+        assertArrayEquals(new long[0], wheel.due(NOW + 10 * 365 * DAY - 1));
+
+        wheel.advance(NOW + 10 * 365 * DAY);
+        assertArrayEquals(new long[]{3}, wheel.due(NOW + 10 * 365 * DAY));
+    }
+
+    @Test
+    public void shouldLimitNumberOfDueEntries() {
+        TimingWheel wheel = new TimingWheel(100, NOW);
+
+        wheel.schedule(1, NOW - 300);
+        wheel.schedule(2, NOW - 200);
+        wheel.schedule(3, NOW - 100);
+
+        assertArrayEquals(new long[]{1, 2}, wheel.due(NOW, 2));
+        assertArrayEquals(new long[0], wheel.due(NOW, 0));
+        assertArrayEquals(new long[]{1, 2, 3}, wheel.due(NOW, 5));
+    }
+}